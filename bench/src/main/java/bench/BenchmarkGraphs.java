@@ -0,0 +1,137 @@
+// BenchmarkGraphs.java
+//
+// The graphs the benchmarks run on: the bundled data files, parsed with a
+// fixed node shuffle so every run sees the same node ids, and power-law
+// graphs generated by preferential attachment (Barabasi-Albert), whose few
+// high-degree hubs are where ESU spends most of its time on real networks.
+//
+// A graph is named either by a data file ("test04", looked up in the
+// directory given by the system property bench.data, ../data by default)
+// or as "powerlaw-N-M": N nodes, each attached to M earlier ones.
+
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class BenchmarkGraphs {
+
+    private static final long SEED = 42;
+
+    public static Graph load(String name) throws IOException {
+        if (name.startsWith("powerlaw-")) {
+            String[] parts = name.split("-");
+            return powerLaw(Integer.parseInt(parts[1]),
+                            Integer.parseInt(parts[2]), new Random(SEED));
+        }
+        File file =
+            new File(System.getProperty("bench.data", "../data"), name);
+        return new Graph(file.getPath(), 1, new Random(SEED));
+    }
+
+    // a graph where each new node is attached to 'edges' distinct earlier
+    // nodes, chosen with probability proportional to their degree
+    public static Graph powerLaw(int nodes, int edges, Random random) {
+        int initial = edges + 1;
+        int maxEdges = (initial * (initial - 1) / 2) +
+                       ((nodes - initial) * edges);
+        int[] from = new int[maxEdges];
+        int[] to = new int[maxEdges];
+        int count = 0;
+
+        // every edge end, so a uniform pick is proportional to degree
+        int[] ends = new int[2 * maxEdges];
+        int endCount = 0;
+
+        // start from a clique, so every node has a degree
+        for (int v = 0; v < initial; v++) {
+            for (int u = 0; u < v; u++) {
+                from[count] = u;
+                to[count++] = v;
+                ends[endCount++] = u;
+                ends[endCount++] = v;
+            }
+        }
+        int[] targets = new int[edges];
+        for (int v = initial; v < nodes; v++) {
+            int chosen = 0;
+            while (chosen < edges) {
+                int target = ends[random.nextInt(endCount)];
+                boolean duplicate = false;
+                for (int i = 0; i < chosen; i++) {
+                    duplicate |= targets[i] == target;
+                }
+                if (!duplicate) {
+                    targets[chosen++] = target;
+                }
+            }
+            for (int i = 0; i < edges; i++) {
+                from[count] = targets[i];
+                to[count++] = v;
+                ends[endCount++] = targets[i];
+                ends[endCount++] = v;
+            }
+        }
+
+        // to CSR, with sorted neighbours
+        int[] offsets = new int[nodes + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[from[i] + 1]++;
+            offsets[to[i] + 1]++;
+        }
+        for (int v = 0; v < nodes; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] next = Arrays.copyOf(offsets, nodes);
+        int[] neighbours = new int[2 * count];
+        for (int i = 0; i < count; i++) {
+            neighbours[next[from[i]]++] = to[i];
+            neighbours[next[to[i]]++] = from[i];
+        }
+        for (int v = 0; v < nodes; v++) {
+            Arrays.sort(neighbours, offsets[v], offsets[v + 1]);
+        }
+        return new Graph(offsets, neighbours);
+    }
+
+    // the graph with 'node' renumbered to 0 (and node 0 to its id), so
+    // its ESU tree holds every connected subgraph containing it
+    public static Graph first(Graph graph, int node) {
+        int[] newIds = new int[graph.size()];
+        for (int v = 0; v < newIds.length; v++) {
+            newIds[v] = v;
+        }
+        newIds[node] = 0;
+        newIds[0] = node;
+        return graph.relabel(newIds);
+    }
+
+    // the node of highest degree, the most expensive root
+    public static int hub(Graph graph) {
+        int hub = 0;
+        for (int v = 1; v < graph.size(); v++) {
+            if (graph.degree(v) > graph.degree(hub)) {
+                hub = v;
+            }
+        }
+        return hub;
+    }
+
+    // a node of median degree, a typical root
+    public static int median(Graph graph) {
+        Integer[] nodes = new Integer[graph.size()];
+        for (int v = 0; v < nodes.length; v++) {
+            nodes[v] = v;
+        }
+        final Graph sorted = graph;
+        Arrays.sort(nodes, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(sorted.degree(a), sorted.degree(b));
+            }
+        });
+        return nodes[nodes.length / 2];
+    }
+}
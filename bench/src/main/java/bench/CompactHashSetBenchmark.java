@@ -0,0 +1,98 @@
+// CompactHashSetBenchmark.java
+//
+// CompactHashSet operations on sets of the size of a node's neighbourhood,
+// from a typical node to a hub.
+
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactHashSetBenchmark {
+
+    // the number of elements of the set
+    @Param({"4", "32", "256", "2048"})
+    public int degree;
+
+    private int[] elements;
+    private int[] probes;     // half of them in the set
+    private CompactHashSet set;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        elements = new int[degree];
+        probes = new int[degree];
+        for (int i = 0; i < degree; i++) {
+            elements[i] = random.nextInt(1 << 20);
+            probes[i] = (i % 2 == 0) ? elements[i] : random.nextInt(1 << 20);
+        }
+        set = new CompactHashSet();
+        for (int element:elements) {
+            set.add(element);
+        }
+    }
+
+    @Benchmark
+    public CompactHashSet add() {
+        CompactHashSet added = new CompactHashSet();
+        for (int element:elements) {
+            added.add(element);
+        }
+        return added;
+    }
+
+    @Benchmark
+    public int contains() {
+        int found = 0;
+        for (int probe:probes) {
+            if (set.contains(probe)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public long iterate() {
+        long sum = 0;
+        CompactHashSet.Iter iter = set.iterator();
+        while (iter.hasNext()) {
+            sum += iter.next();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public CompactHashSet copy() {
+        return set.copy();
+    }
+
+    // includes a copy of the set, see copy() for its share
+    @Benchmark
+    public CompactHashSet copyAndRemove() {
+        CompactHashSet removed = set.copy();
+        for (int element:elements) {
+            removed.remove(element);
+        }
+        return removed;
+    }
+}
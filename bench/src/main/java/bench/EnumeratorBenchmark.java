@@ -0,0 +1,60 @@
+// EnumeratorBenchmark.java
+//
+// The ESU kernel: enumerating the subgraphs of a single root with an
+// Enumerator, counting them by packed key (no MotifTable, so the same work
+// is done for every motif size). The root is either the node of highest
+// degree or one of median degree, renumbered to 0 so that its ESU tree
+// holds every subgraph containing it, as for the lowest roots of a run.
+
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EnumeratorBenchmark {
+
+    @Param({"test01", "test03", "test04", "powerlaw-10000-3"})
+    public String graph;
+
+    @Param({"3", "4"})
+    public int motifSize;
+
+    @Param({"hub", "median"})
+    public String root;
+
+    private Enumerator enumerator;
+
+    @Setup
+    public void setup() throws IOException {
+        Graph network = BenchmarkGraphs.load(graph);
+        int node = root.equals("hub") ? BenchmarkGraphs.hub(network)
+                                      : BenchmarkGraphs.median(network);
+        enumerator = new Enumerator(BenchmarkGraphs.first(network, node),
+                                    motifSize);
+    }
+
+    // returns the running subgraph total, so the work is not eliminated
+    @Benchmark
+    public long enumerate() {
+        enumerator.enumerate(0);
+        return enumerator.getSubgraphs();
+    }
+}
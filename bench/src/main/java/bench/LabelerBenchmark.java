@@ -0,0 +1,60 @@
+// LabelerBenchmark.java
+//
+// Throughput of the built-in canonical labeling: the distinct packed keys
+// that enumerating a whole graph produces are labeled in one batch per
+// operation, as after the enumeration of a rank (without a label cache).
+
+package bench;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LabelerBenchmark {
+
+    @Param({"test04"})
+    public String graph;
+
+    @Param({"5", "6"})
+    public int motifSize;
+
+    @Param({"1"})
+    public int threads;
+
+    private Labeler labeler;
+    private LongCountMap counts;
+
+    @Setup
+    public void setup() throws IOException {
+        Graph network = BenchmarkGraphs.load(graph);
+        Enumerator enumerator = new Enumerator(network, motifSize);
+        for (int root = 0; root < network.size(); root++) {
+            enumerator.enumerate(root);
+        }
+        counts = enumerator.getCounts(0);
+        labeler = new Labeler(false, threads);
+    }
+
+    @Benchmark
+    public Map<String, Long> getCanonicalLabels() throws IOException {
+        return labeler.getCanonicalLabels(counts, motifSize);
+    }
+}
@@ -0,0 +1,109 @@
+// SubgraphBenchmark.java
+//
+// Building a subgraph node by node (Subgraph.add() checks every edge to
+// the nodes already in it), copying it and converting it to graph6, and
+// the graph6 conversion of AdjacencyMatrix on its own.
+
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubgraphBenchmark {
+
+    @Param({"3", "5", "8"})
+    public int motifSize;
+
+    @Param({"test04"})
+    public String graph;
+
+    private Graph network;
+    private int[] nodes;          // a connected subgraph of the network
+    private Subgraph subgraph;    // holding those nodes
+    private AdjacencyMatrix matrix;
+
+    @Setup
+    public void setup() throws IOException {
+        network = BenchmarkGraphs.load(graph);
+
+        // grow a connected subgraph from the hub, breadth first
+        nodes = new int[motifSize];
+        nodes[0] = BenchmarkGraphs.hub(network);
+        int size = 1;
+        for (int i = 0; i < size && size < motifSize; i++) {
+            for (int j = network.start(nodes[i]);
+                 j < network.end(nodes[i]) && size < motifSize; j++) {
+                int neighbour = network.getNeighbours()[j];
+                boolean present = false;
+                for (int k = 0; k < size; k++) {
+                    present |= nodes[k] == neighbour;
+                }
+                if (!present) {
+                    nodes[size++] = neighbour;
+                }
+            }
+        }
+        if (size < motifSize) {
+            throw new IllegalStateException(graph + " has no connected " +
+                "subgraph of " + motifSize + " nodes around its hub");
+        }
+
+        subgraph = new Subgraph(motifSize);
+        for (int node:nodes) {
+            subgraph.add(node, network);
+        }
+        matrix = AdjacencyMatrix.fromKey(motifSize, subgraph.getKey());
+    }
+
+    // adds every node and removes them again, as ESU does
+    @Benchmark
+    public long addAndRemove() {
+        Subgraph built = new Subgraph(motifSize);
+        for (int node:nodes) {
+            built.add(node, network);
+        }
+        long key = built.getKey();
+        for (int i = 0; i < motifSize; i++) {
+            built.remove();
+        }
+        return key;
+    }
+
+    @Benchmark
+    public Subgraph copy() {
+        return subgraph.copy();
+    }
+
+    @Benchmark
+    public String getByteString() {
+        return subgraph.getByteString();
+    }
+
+    @Benchmark
+    public long getKey() {
+        return subgraph.getKey();
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return matrix.toBytes();
+    }
+}
@@ -0,0 +1,10 @@
+#!/bin/bash -e
+
+# usage
+( test -z $2 ) &&
+  echo "usage: convert.sh data_file output_file [--order=NAME]" &&
+  echo "  ex: convert.sh data/test04 data/test04.bin --order=rcm" &&
+  exit 1
+
+# convert a data file to the binary graph format (run compile.sh first)
+java -Xms1g -Xmx8g -cp build GraphFile "$@"
@@ -2,7 +2,7 @@
 
 # usage
 ( test -z $3 ) &&
-  echo "usage: run.sh data_file motif_size threads_per_node [--show-results]" &&
+  echo "usage: run.sh data_file motif_size threads_per_node [--show-results] [options]" &&
   echo "       (default is to not show results)" &&
   echo "  ex1: run.sh path/to/data 3 4 --show-results" &&
   echo "  ex2: run.sh path/to/data 5 2" &&
@@ -17,7 +17,7 @@ program="Driver"
 data_file=$1
 motif_size=$2
 threads_per_node=$3
-show_results=$4
+shift 3
 mpi_cp="/usr/apps/mpiJava-`uname -p`/lib/classes"
 cp_additions="build"
 nodes=$((`cat mpd.hosts | wc -w` + 1))
@@ -28,5 +28,5 @@ mpirun -n $nodes java -Xms1g -Xmx8g -cp $mpi_cp:$cp_additions:. Driver \
   $threads_per_node \
   $data_file \
   $motif_size \
-  $show_results
+  "$@"
 mpdallexit
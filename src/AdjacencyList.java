@@ -4,6 +4,9 @@ import java.io.Serializable;
 
 public class AdjacencyList implements Serializable {
 
+    // the identifier computed for this class before it was declared
+    private static final long serialVersionUID = -7099838085051924568L;
+
     private CompactHashSet nodes;
 
     public AdjacencyList() {
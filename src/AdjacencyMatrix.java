@@ -1,36 +1,128 @@
 // AdjacencyMatrix.java
 
 // Undirected graph representation.
+//
+// The upper triangle is stored as a bit vector in column order, which is the
+// same order graph6 uses. Edges of node n (to nodes < n) therefore occupy a
+// contiguous range of bits that follows the ranges of all smaller nodes.
 
-import java.util.BitSet;
+import java.nio.charset.StandardCharsets;
 
 public class AdjacencyMatrix {
 
+    // largest order whose upper triangle (55 bits) fits in a single long
+    public static final int MAX_KEY_ORDER = 11;
+
+    // keys of different orders counted together carry their order above
+    // the bits of any key (see withOrder())
+    private static final int ORDER_SHIFT = 56;
+    private static final long KEY_MASK = (1L << ORDER_SHIFT) - 1;
+
     private int order;
-    private BitSet matrix;
+    private long[] words;
 
     public AdjacencyMatrix(int order) {
         this.order = order;
-        this.matrix = new BitSet((order * (order - 1)) / 2);
+        this.words = new long[(((order * (order - 1)) / 2) + 63) >>> 6];
     }
 
     private AdjacencyMatrix(AdjacencyMatrix source) {
         this.order = source.order;
-        this.matrix = (BitSet)source.matrix.clone();
+        this.words = source.words.clone();
     }
 
     public void addEdge(int x, int y) {
         if (x == y) {
             return;
         }
-        matrix.set(indexFor(x, y));
+        int index = indexFor(x, y);
+        words[index >>> 6] |= 1L << index;
     }
 
     public boolean hasEdge(int x, int y) {
         if (x == y) {
             return true;
         }
-        return matrix.get(indexFor(x, y));
+        int index = indexFor(x, y);
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    // removes all edges between the given node and the nodes before it
+    public void clearEdges(int node) {
+        int from = indexFor(0, node);
+        for (int index = from; index < from + node; index++) {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    // returns the upper triangle packed into a long, with bit i holding the
+    // i-th bit of the graph6 bit vector (only valid up to MAX_KEY_ORDER)
+    public long toKey() {
+        return words.length == 0 ? 0L : words[0];
+    }
+
+    // a key of a subgraph counted together with larger ones, tagged with
+    // its order. The key of the first nodes of a matrix is the same as that
+    // of a matrix of just those nodes, so it can be taken from the larger
+    // matrix while it is built.
+    public static long withOrder(int order, long key) {
+        return ((long)order << ORDER_SHIFT) | key;
+    }
+
+    // the order of a key from withOrder(), or 'order' for an untagged key
+    public static int orderOf(long key, int order) {
+        int tag = (int)(key >>> ORDER_SHIFT);
+        return tag != 0 ? tag : order;
+    }
+
+    // a key without its order
+    public static long withoutOrder(long key) {
+        return key & KEY_MASK;
+    }
+
+    // rebuilds a matrix from a key produced by toKey()
+    public static AdjacencyMatrix fromKey(int order, long key) {
+        AdjacencyMatrix matrix = new AdjacencyMatrix(order);
+        if (matrix.words.length > 0) {
+            matrix.words[0] = key;
+        }
+        return matrix;
+    }
+
+    // graph6 string for a key produced by toKey()
+    public static String toGraph6(int order, long key) {
+        return new String(fromKey(order, key).toBytes(),
+                          StandardCharsets.UTF_8);
+    }
+
+    // parses a graph6 byte representation (orders up to 62 only)
+    public static AdjacencyMatrix fromBytes(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] < 63 || bytes[0] > 125) {
+            throw new IllegalArgumentException(
+                "Unsupported graph6 representation.");
+        }
+        int order = bytes[0] - 63;
+        AdjacencyMatrix matrix = new AdjacencyMatrix(order);
+
+        int bit = 0;
+        for (int col = 1; col < order; col++) {
+            for (int row = 0; row < col; row++) {
+                int index = 1 + (bit / 6);
+                if (index >= bytes.length) {
+                    throw new IllegalArgumentException(
+                        "Truncated graph6 representation.");
+                }
+                if (((bytes[index] - 63) & (1 << (5 - (bit % 6)))) != 0) {
+                    matrix.addEdge(row, col);
+                }
+                bit++;
+            }
+        }
+        return matrix;
+    }
+
+    public int order() {
+        return order;
     }
 
     public AdjacencyMatrix copy() {
@@ -0,0 +1,313 @@
+// CanonicalLabeler.java
+//
+// Computes canonical forms of small graphs (up to AdjacencyMatrix.MAX_KEY_ORDER
+// nodes) in the style of nauty: the nodes are split into an ordered partition
+// that is refined until it is equitable, and the search tree of individualized
+// nodes is explored to find the labelling with the largest adjacency key.
+// Automorphisms discovered at the leaves are used to skip subtrees that are
+// images of subtrees already explored.
+//
+// The canonical key is a property of the isomorphism class only, but it is
+// not the same labelling that labelg produces. An instance keeps reusable
+// buffers and must not be shared between threads.
+
+public class CanonicalLabeler {
+
+    // at most this many automorphisms are kept for pruning
+    private static final int MAX_AUTOMORPHISMS = 64;
+
+    private int order;
+    private int[] adjacency;          // neighbour bitmask of each node
+
+    private int[][] cells;            // partition (as node bitmasks) per level
+    private int[] cellCounts;
+    private int[] prefix;             // node individualized at each level
+
+    private long bestKey;
+    private int[] bestLabels;         // node -> position for the best leaf
+    private int[] bestPrefix;
+    private int bestDepth;
+    private int jumpTo;               // level to return to, or -1
+    private int[] labels;
+    private int[] inverse;
+    private int[] parts;              // sub-cells by neighbour count
+    private int[][] automorphisms;
+    private int automorphismCount;
+
+    // orbits of each level's node under the automorphisms fixing its prefix,
+    // and how many of the known automorphisms have been applied to them
+    private int[][] orbits;
+    private int[] orbitAutomorphisms;
+
+    public CanonicalLabeler() {
+        int n = AdjacencyMatrix.MAX_KEY_ORDER;
+        adjacency = new int[n];
+        cells = new int[n + 1][n];
+        cellCounts = new int[n + 1];
+        prefix = new int[n + 1];
+        bestLabels = new int[n];
+        bestPrefix = new int[n + 1];
+        labels = new int[n];
+        inverse = new int[n];
+        parts = new int[n + 1];
+        automorphisms = new int[MAX_AUTOMORPHISMS][n];
+        orbits = new int[n + 1][n];
+        orbitAutomorphisms = new int[n + 1];
+    }
+
+    // returns the canonical key of the graph with the given order and key
+    // (see AdjacencyMatrix.toKey())
+    public long canonicalKey(int order, long key) {
+        if (order < 0 || order > AdjacencyMatrix.MAX_KEY_ORDER) {
+            throw new IllegalArgumentException(
+                "Argument out of range (order must be at most " +
+                AdjacencyMatrix.MAX_KEY_ORDER + ").");
+        }
+        this.order = order;
+        if (order < 2) {
+            return 0L;
+        }
+
+        for (int i = 0; i < order; i++) {
+            adjacency[i] = 0;
+        }
+        int bit = 0;
+        for (int col = 1; col < order; col++) {
+            for (int row = 0; row < col; row++) {
+                if ((key & (1L << bit)) != 0) {
+                    adjacency[row] |= 1 << col;
+                    adjacency[col] |= 1 << row;
+                }
+                bit++;
+            }
+        }
+
+        bestKey = -1L;
+        jumpTo = -1;
+        automorphismCount = 0;
+        cells[0][0] = (1 << order) - 1;
+        cellCounts[0] = 1;
+        search(0);
+        return bestKey;
+    }
+
+    // explores the search tree below the partition at the given level
+    private void search(int level) {
+        refine(level);
+        int[] partition = cells[level];
+        int count = cellCounts[level];
+
+        if (count == order) {
+            leaf(level, partition);
+            return;
+        }
+
+        // individualize each node of the first non-singleton cell in turn
+        int target = 0;
+        while (Integer.bitCount(partition[target]) == 1) {
+            target++;
+        }
+        int cell = partition[target];
+        int tried = 0;
+        for (int i = 0; i < order; i++) {
+            orbits[level][i] = i;
+        }
+        orbitAutomorphisms[level] = 0;
+        for (int node = 0; node < order; node++) {
+            if ((cell & (1 << node)) == 0) {
+                continue;
+            }
+            if (equivalentToTried(level, node, tried)) {
+                continue;
+            }
+            tried |= 1 << node;
+
+            int[] child = cells[level + 1];
+            System.arraycopy(partition, 0, child, 0, target);
+            child[target] = 1 << node;
+            child[target + 1] = cell & ~(1 << node);
+            System.arraycopy(partition, target + 1, child, target + 2,
+                             count - target - 1);
+            cellCounts[level + 1] = count + 1;
+            prefix[level] = node;
+            search(level + 1);
+
+            if (jumpTo >= 0) {
+                if (jumpTo < level) {
+                    return;
+                }
+                jumpTo = -1;
+            }
+        }
+    }
+
+    // splits cells until every node of a cell has the same number of
+    // neighbours in every other cell. Cells are split in place, ordered by
+    // that number, so the result only depends on the graph's structure.
+    private void refine(int level) {
+        int[] partition = cells[level];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int s = 0; s < cellCounts[level] && !changed; s++) {
+                int splitter = partition[s];
+                for (int c = 0; c < cellCounts[level]; c++) {
+                    if (split(level, c, splitter)) {
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // splits cell 'c' by the number of neighbours in 'splitter', returning
+    // true if the cell was split
+    private boolean split(int level, int c, int splitter) {
+        int[] partition = cells[level];
+        int cell = partition[c];
+        if (Integer.bitCount(cell) == 1) {
+            return false;
+        }
+
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (int node = 0; node < order; node++) {
+            if ((cell & (1 << node)) != 0) {
+                int degree = Integer.bitCount(adjacency[node] & splitter);
+                min = Math.min(min, degree);
+                max = Math.max(max, degree);
+            }
+        }
+        if (min == max) {
+            return false;
+        }
+
+        // collect the sub-cells in ascending neighbour count
+        int range = max - min + 1;
+        for (int i = 0; i < range; i++) {
+            parts[i] = 0;
+        }
+        for (int node = 0; node < order; node++) {
+            if ((cell & (1 << node)) != 0) {
+                parts[Integer.bitCount(adjacency[node] & splitter) - min] |=
+                    1 << node;
+            }
+        }
+        int pieces = 0;
+        for (int i = 0; i < range; i++) {
+            if (parts[i] != 0) {
+                pieces++;
+            }
+        }
+
+        int count = cellCounts[level];
+        System.arraycopy(partition, c + 1, partition, c + pieces,
+                         count - c - 1);
+        int index = c;
+        for (int i = 0; i < range; i++) {
+            if (parts[i] != 0) {
+                partition[index++] = parts[i];
+            }
+        }
+        cellCounts[level] = count + pieces - 1;
+        return true;
+    }
+
+    // evaluates the labelling of a discrete partition
+    private void leaf(int level, int[] partition) {
+        for (int i = 0; i < order; i++) {
+            labels[Integer.numberOfTrailingZeros(partition[i])] = i;
+        }
+
+        long key = 0L;
+        for (int x = 0; x < order; x++) {
+            int neighbours = adjacency[x] & ~((1 << (x + 1)) - 1);
+            while (neighbours != 0) {
+                int y = Integer.numberOfTrailingZeros(neighbours);
+                neighbours &= neighbours - 1;
+                int a = Math.min(labels[x], labels[y]);
+                int b = Math.max(labels[x], labels[y]);
+                key |= 1L << (((b * (b - 1)) / 2) + a);
+            }
+        }
+
+        if (key > bestKey) {
+            bestKey = key;
+            System.arraycopy(labels, 0, bestLabels, 0, order);
+            System.arraycopy(prefix, 0, bestPrefix, 0, level);
+            bestDepth = level;
+        } else if (key == bestKey) {
+            // the automorphism maps the subtree holding the best leaf, which
+            // has been fully explored, onto the subtree holding this leaf
+            // below the level where their paths diverge, so the rest of
+            // this subtree can be skipped
+            int diverge = 0;
+            while (diverge < level && diverge < bestDepth
+                   && prefix[diverge] == bestPrefix[diverge]) {
+                diverge++;
+            }
+            jumpTo = diverge;
+            if (automorphismCount == MAX_AUTOMORPHISMS) {
+                return;
+            }
+
+            // both labellings give the same graph, so mapping a node to the
+            // node with the same best label is an automorphism
+            for (int i = 0; i < order; i++) {
+                inverse[bestLabels[i]] = i;
+            }
+            int[] automorphism = automorphisms[automorphismCount++];
+            for (int i = 0; i < order; i++) {
+                automorphism[i] = inverse[labels[i]];
+            }
+        }
+    }
+
+    // returns true if 'node' is in the same orbit as an already tried node,
+    // under the known automorphisms that fix every individualized node
+    private boolean equivalentToTried(int level, int node, int tried) {
+        if (tried == 0) {
+            return false;
+        }
+
+        // merge the orbits with automorphisms found since the last check
+        int[] orbit = orbits[level];
+        for (int a = orbitAutomorphisms[level]; a < automorphismCount; a++) {
+            int[] automorphism = automorphisms[a];
+            boolean fixesPrefix = true;
+            for (int l = 0; l < level && fixesPrefix; l++) {
+                fixesPrefix = automorphism[prefix[l]] == prefix[l];
+            }
+            if (fixesPrefix) {
+                for (int i = 0; i < order; i++) {
+                    union(orbit, i, automorphism[i]);
+                }
+            }
+        }
+        orbitAutomorphisms[level] = automorphismCount;
+
+        int root = find(orbit, node);
+        for (int other = 0; other < order; other++) {
+            if ((tried & (1 << other)) != 0 && find(orbit, other) == root) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int find(int[] orbit, int node) {
+        while (orbit[node] != node) {
+            node = orbit[node];
+        }
+        return node;
+    }
+
+    private static void union(int[] orbit, int x, int y) {
+        x = find(orbit, x);
+        y = find(orbit, y);
+        if (x != y) {
+            orbit[Math.max(x, y)] = Math.min(x, y);
+        }
+    }
+}
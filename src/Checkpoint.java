@@ -0,0 +1,321 @@
+// Checkpoint.java
+//
+// Periodic checkpoints of the enumeration, so a run that fails can be
+// resumed instead of started over. Every thread of a rank's EnumerationPool
+// writes its own file to the checkpoint directory: the units of work it has
+// completed (a whole root, or one branch of a root, see
+// Enumerator.enumerateBranch()) and its raw counts. A thread only writes
+// between units, so its counts are exactly those of its units. Files are
+// written to a temporary file that is then renamed, so a crash never leaves
+// a partial file behind.
+//
+// Files belong to a generation. When a run starts, it loads the files of
+// the latest generation of its rank (only with --resume), writes their
+// merged contents as the 'base' file of the next generation and deletes
+// the older files; its threads then write their files in the new
+// generation. So at any time the files of the latest generation hold all
+// work completed so far, exactly once.
+//
+// File layout (DataOutputStream):
+//   magic, version (int each), fingerprint of the graph and the settings
+//   that affect the counts (long), number of sums (the counts, and the
+//   sums of squares when sampling, see Sampling), motif id count (int each;
+//   0 for counts by packed key)
+//   the units: their number (int), then each unit (long)
+//   for each sum: the number of entries (int) and each (key, count) pair,
+//   then the count of every motif id (longs; with a MotifTable the pairs
+//   only hold the smaller sizes of --all-sizes)
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Checkpoint {
+
+    public static final int DEFAULT_INTERVAL = 300;  // seconds
+
+    private static final int MAGIC = 0x434b5031;  // "CKP1"
+    private static final int VERSION = 3;
+    private static final String SUFFIX = ".ckpt";
+
+    private File directory;
+    private int rank;
+    private long fingerprint;
+    private int sums;
+    private int motifIds;          // 0 when counting by packed key
+    private long intervalMillis;
+    private int generation;
+
+    // what the files of the previous generation held
+    private long[] baseUnits = new long[0];
+    private LongCountMap[] baseCounts;
+    private long[][] baseMotifCounts;
+
+    // the units completed by any rank, the roots that have some completed
+    // branches (both as sets)
+    private LongCountMap done;
+    private LongCountMap partialRoots;
+
+    // 'fingerprint' identifies the graph and settings (see fingerprint());
+    // 'motifIds' is the MotifTable size, or 0 without a table
+    public Checkpoint(String directory, int rank, long fingerprint,
+                      int sums, int motifIds, int intervalSeconds) {
+        this.directory = new File(directory);
+        this.rank = rank;
+        this.fingerprint = fingerprint;
+        this.sums = sums;
+        this.motifIds = motifIds;
+        this.intervalMillis = intervalSeconds * 1000L;
+
+        baseCounts = new LongCountMap[sums];
+        baseMotifCounts = new long[sums][];
+        for (int sum = 0; sum < sums; sum++) {
+            baseCounts[sum] = new LongCountMap();
+            baseMotifCounts[sum] = new long[motifIds];
+        }
+        done = new LongCountMap();
+        partialRoots = new LongCountMap();
+    }
+
+    // the unit for a branch of a root, or for the whole root if 'branch'
+    // is negative
+    public static long unit(int root, int branch) {
+        return ((long)root << 32) | (branch + 1);
+    }
+
+    // a hash of the graph and of the settings that change what is counted,
+    // so a checkpoint is never resumed with different ones
+    public static long fingerprint(Graph graph, int motifSize,
+                                   int minimumSize, double[] sampling,
+                                   long seed) {
+        long hash = mix(motifSize);
+        hash = mix(hash ^ minimumSize);
+        hash = mix(hash ^ graph.size());
+        int[] offsets = graph.getOffsets();
+        int[] neighbours = graph.getNeighbours();
+        for (int i = 0; i < offsets.length; i++) {
+            hash = (hash * 31) + offsets[i];
+        }
+        for (int i = 0; i < neighbours.length; i++) {
+            hash = (hash * 31) + neighbours[i];
+        }
+        if (sampling != null) {
+            for (double probability:sampling) {
+                hash = mix(hash ^ Double.doubleToLongBits(probability));
+            }
+            hash = mix(hash ^ seed);
+        }
+        return mix(hash);
+    }
+
+    // loads the latest generation if 'resume' is set, and starts the next
+    // generation with it (or with nothing) as its base
+    public void start(boolean resume) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create checkpoint directory " +
+                directory);
+        }
+
+        int latest = 0;
+        for (File file:files()) {
+            latest = Math.max(latest, generationOf(file));
+        }
+        if (resume) {
+            for (File file:files()) {
+                if (generationOf(file) == latest) {
+                    load(file);
+                }
+            }
+        }
+
+        generation = latest + 1;
+        write(fileName("base"), baseUnits, baseUnits.length, baseCounts,
+              baseMotifCounts);
+        for (File file:files()) {
+            if (generationOf(file) < generation) {
+                file.delete();
+            }
+        }
+    }
+
+    // the units completed before this run on this rank
+    public long[] getBaseUnits() {
+        return baseUnits;
+    }
+
+    // the counts of those units
+    public LongCountMap getBaseCounts(int sum) {
+        return baseCounts[sum];
+    }
+
+    public long[] getBaseMotifCounts(int sum) {
+        return baseMotifCounts[sum];
+    }
+
+    // marks the units completed by any rank, which are then skipped
+    public void setDone(long[] units) {
+        for (long unit:units) {
+            done.increment(unit);
+            if ((int)unit != 0) {
+                partialRoots.increment(unit >>> 32);
+            }
+        }
+    }
+
+    public boolean isDone(long unit) {
+        return done.get(unit) != 0;
+    }
+
+    // true if some branches of the root are done, so it must be enumerated
+    // branch by branch
+    public boolean hasDoneBranches(int root) {
+        return partialRoots.get(root) != 0;
+    }
+
+    // true if a thread that last wrote its file at 'lastWrite' should
+    // write it again
+    public boolean isDue(long lastWrite) {
+        return System.currentTimeMillis() - lastWrite >= intervalMillis;
+    }
+
+    // writes the file of a thread: the first 'length' of its units, and
+    // the counts of its enumerator
+    public void write(int thread, long[] units, int length,
+                      Enumerator enumerator) throws IOException {
+        LongCountMap[] counts = new LongCountMap[sums];
+        long[][] motifCounts = new long[sums][];
+        for (int sum = 0; sum < sums; sum++) {
+            counts[sum] = enumerator.getCounts(sum);
+            motifCounts[sum] = enumerator.getMotifCounts(sum);
+        }
+        write(fileName("thread" + thread), units, length, counts,
+              motifCounts);
+    }
+
+    private File fileName(String name) {
+        return new File(directory,
+            "rank" + rank + "-gen" + generation + "-" + name + SUFFIX);
+    }
+
+    // the checkpoint files of this rank
+    private File[] files() {
+        File[] all = directory.listFiles();
+        if (all == null) {
+            return new File[0];
+        }
+        int count = 0;
+        File[] files = new File[all.length];
+        for (File file:all) {
+            if (file.getName().startsWith("rank" + rank + "-gen") &&
+                file.getName().endsWith(SUFFIX) && generationOf(file) > 0) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    // the generation in a file's name, or 0 if it has none
+    private int generationOf(File file) {
+        String name = file.getName();
+        int start = ("rank" + rank + "-gen").length();
+        int end = name.indexOf('-', start);
+        if (end < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(start, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void write(File file, long[] units, int length,
+                       LongCountMap[] counts, long[][] motifCounts)
+        throws IOException {
+        File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(sums);
+            out.writeInt(motifIds);
+            out.writeInt(length);
+            for (int i = 0; i < length; i++) {
+                out.writeLong(units[i]);
+            }
+            for (int sum = 0; sum < sums; sum++) {
+                out.writeInt(counts[sum].size());
+                LongCountMap.Iter iter = counts[sum].iterator();
+                while (iter.hasNext()) {
+                    out.writeLong(iter.next());
+                    out.writeLong(iter.count());
+                }
+                for (int id = 0; id < motifIds; id++) {
+                    out.writeLong(motifCounts[sum][id]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            // renameTo does not replace the target on every platform
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to write checkpoint " + file);
+            }
+        }
+    }
+
+    // adds a file's units and counts to the base
+    private void load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a checkpoint file");
+            }
+            if (in.readLong() != fingerprint || in.readInt() != sums ||
+                in.readInt() != motifIds) {
+                throw new IOException(file + " was written for another " +
+                    "graph, motif size or sampling; resume with the same " +
+                    "data file and options (and --seed or --no-shuffle)");
+            }
+
+            int length = in.readInt();
+            int start = baseUnits.length;
+            baseUnits = Arrays.copyOf(baseUnits, start + length);
+            for (int i = 0; i < length; i++) {
+                baseUnits[start + i] = in.readLong();
+            }
+            for (int sum = 0; sum < sums; sum++) {
+                int entries = in.readInt();
+                for (int i = 0; i < entries; i++) {
+                    long key = in.readLong();
+                    baseCounts[sum].add(key, in.readLong());
+                }
+                for (int id = 0; id < motifIds; id++) {
+                    baseMotifCounts[sum][id] += in.readLong();
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE53A2A63L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
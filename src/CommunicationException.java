@@ -0,0 +1,17 @@
+// CommunicationException.java
+//
+// A failure to exchange data between ranks (see Communicator), with the
+// exception of the underlying library, if any, as its cause.
+
+public class CommunicationException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public CommunicationException(String message) {
+        super(message);
+    }
+
+    public CommunicationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
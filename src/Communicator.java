@@ -0,0 +1,65 @@
+// Communicator.java
+//
+// The operations the ranks of a run use to exchange data. Arrays are sent
+// whole, so implementations can choose how to move them: MpiCommunicator
+// sends them with mpiJava (in chunks, or serialized for objects), while
+// SharedMemoryCommunicator runs every rank in one JVM and passes them by
+// reference. Data received from a collective operation may therefore be
+// the very array or object another rank holds, so it must not be modified;
+// objects received with receiveObject() belong to the receiver.
+//
+// Collective operations must be called by every rank in the same order.
+// All calls of a rank, send() and receive() included, must come from one
+// thread: MpiCommunicator starts MPI without asking for thread support, so
+// other threads that need to communicate go through that thread (see
+// RootDispenser).
+
+public interface Communicator {
+
+    // matches a message from any rank in receive()
+    int ANY_SOURCE = -1;
+
+    int rank();
+
+    int size();
+
+    // returns the root's array on every rank ('values' is only read on
+    // the root)
+    int[] broadcast(int[] values, int root) throws CommunicationException;
+
+    long[] broadcast(long[] values, int root) throws CommunicationException;
+
+    // returns the root's object on every rank
+    Object broadcastObject(Object value, int root)
+        throws CommunicationException;
+
+    // returns the arrays of all ranks (each of the same length),
+    // concatenated in rank order, on the root, and null on the others
+    long[] gather(long[] values, int root) throws CommunicationException;
+
+    // returns the arrays of all ranks concatenated in rank order, on every
+    // rank; the arrays may differ in length
+    int[] allGather(int[] values) throws CommunicationException;
+
+    long[] allGather(long[] values) throws CommunicationException;
+
+    // sends the array to a rank, which receives it with receive()
+    void send(int[] values, int destination, int tag)
+        throws CommunicationException;
+
+    // receives 'values.length' ints from 'source' (or ANY_SOURCE), and
+    // returns the rank they came from
+    int receive(int[] values, int source, int tag)
+        throws CommunicationException;
+
+    void sendObject(Object value, int destination, int tag)
+        throws CommunicationException;
+
+    Object receiveObject(int source, int tag) throws CommunicationException;
+
+    // waits until every rank has called it
+    void barrier() throws CommunicationException;
+
+    // ends the run on all ranks
+    void abort(int code);
+}
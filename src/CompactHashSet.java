@@ -1,45 +1,63 @@
 // CompactHashSet.java
+//
+// A set of non-negative ints. The elements are kept densely in 'elements',
+// and 'table' is an open-addressing index into it with linear probing:
+// each slot holds the position of an element plus one, or 0 if it is
+// empty. The table is at most half full and doubles when it would fill
+// further; removals shift the following slots back instead of leaving
+// tombstones, and move the last element into the hole.
+//
+// Iterators walk 'elements' from the end, so Iter.remove() only moves an
+// element that has already been returned, and removing while iterating
+// takes constant time. copy() clones the two arrays.
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.lang.IllegalStateException;
 import java.util.NoSuchElementException;
 
 public class CompactHashSet implements Serializable {
 
+    // the identifier of the bucketed version, whose format is kept, as
+    // computed when it is compiled for Java 8; compiled with later JDKs it
+    // gets LATER_BUCKETED_UID instead. Streams of either build read with
+    // Input, but streams written by this class only read in a Java 8 build
+    // of the bucketed version.
+    private static final long serialVersionUID = -1332659070372934787L;
+    private static final long LATER_BUCKETED_UID = -9013059937898828200L;
+
     private static final int DEFAULT_CAPACITY = 29;
-    private static final int STARTING_BUCKET_SIZE = 4;
-    private static final int NULL_ELEMENT = -1;
+    private static final int MINIMUM_TABLE_SIZE = 4;
 
-    private int[][] table;
+    private int[] table;
+    private int[] elements;
     private int size;
 
     public CompactHashSet() {
         this(DEFAULT_CAPACITY);
     }
 
-    public CompactHashSet(int tableSize) {
-        if (tableSize < 0) {
+    // 'capacity' is the number of elements to make room for
+    public CompactHashSet(int capacity) {
+        if (capacity < 0) {
             throw new IllegalArgumentException(
                 "Argument out of range (must be non-negative).");
         }
+        allocate(capacity);
+    }
 
-        size = 0;
-        table = new int[(tableSize == 0 ? 1 : tableSize)][];
-        for (int i = 0; i < table.length; i++) {
-            table[i] = null;
-        }
+    private CompactHashSet(CompactHashSet set) {
+        table = set.table.clone();
+        elements = set.elements.clone();
+        size = set.size;
     }
 
     public CompactHashSet copy() {
-        CompactHashSet copy = new CompactHashSet(table.length);
-        Iter iter = iterator();
-        while (iter.hasNext()) {
-            copy.add(iter.next());
-        }
-        return copy;
+        return new CompactHashSet(this);
     }
 
     public int size() {
@@ -56,99 +74,99 @@ public class CompactHashSet implements Serializable {
                 "Argument out of range (must be non-negative).");
         }
 
-        int bucket = hash(element) % table.length;
-        if (table[bucket] == null) {
-
-            // create a bucket if it does not exist
-            table[bucket] = new int[STARTING_BUCKET_SIZE];
-            for (int i = 1; i < table[bucket].length; i++) {
-                table[bucket][i] = NULL_ELEMENT;
-            }
-
-            // add element to bucket
-            table[bucket][0] = element;
-            size++;
+        int slot = find(element);
+        if (table[slot] != 0) {
             return;
         }
-
-        // check bucket if element already exists
-        for (int i = 0; i < table[bucket].length; i++) {
-            if (table[bucket][i] == element) {
-                return;
-            }
-        }
-
-        // try to add element if there is space
-        for (int i = 0; i < table[bucket].length; i++) {
-            if (table[bucket][i] == NULL_ELEMENT) {
-                table[bucket][i] = element;
-                size++;
-                return;
-            }
+        if (size == elements.length) {
+            grow();
+            slot = find(element);
         }
-
-        // otherwise grow the bucket and add to first new position
-        int previousLength = table[bucket].length;
-        grow(bucket);
-        table[bucket][previousLength] = element;
-        size++;
+        elements[size] = element;
+        table[slot] = ++size;
     }
 
     public boolean contains(int element) {
+        return element >= 0 && table[find(element)] != 0;
+    }
+
+    public boolean remove(int element) {
         if (element < 0) {
             return false;
         }
 
-        int bucket = hash(element) % table.length;
-        if (table[bucket] == null) {
-            return false;
-        } else {
-            for (int index = 0; index < table[bucket].length; index++) {
-                if (table[bucket][index] == element) {
-                    return true;
-                }
-            }
+        int slot = find(element);
+        if (table[slot] == 0) {
             return false;
         }
+        removeAt(slot);
+        return true;
     }
 
-    public boolean remove(int element) {
-        if (element < 0) {
-            return false;
+    // the slot of the element, or the empty slot where it would go
+    private int find(int element) {
+        int mask = table.length - 1;
+        int slot = hash(element) & mask;
+        while (table[slot] != 0 && elements[table[slot] - 1] != element) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // removes the element indexed by the slot
+    private void removeAt(int slot) {
+        int position = table[slot] - 1;
+        int last = elements[size - 1];
+        size--;
+
+        // move the last element into the hole (found first, as the
+        // removed slot would match it afterwards)
+        if (position != size) {
+            table[find(last)] = position + 1;
+            elements[position] = last;
         }
 
-        int bucket = hash(element) % table.length;
-        if (table[bucket] == null) {
-            return false;
-        } else {
-            for (int index = 0; index < table[bucket].length; index++) {
-                if (table[bucket][index] == element) {
-                    table[bucket][index] = NULL_ELEMENT;
-                    size--;
-                    return true;
-                }
+        // shift back the slots after the removed one that would no longer
+        // be reachable from their home slot
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        while (table[next] != 0) {
+            int home = hash(elements[table[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
             }
-            return false;
+            next = (next + 1) & mask;
         }
+        table[hole] = 0;
     }
 
-    // increase the size of the bucket at the given index
-    private void grow(int bucketIndex) {
-        // double the bucket size
-        int[] newBucket = new int[table[bucketIndex].length * 2];
-
-        int index = 0;
-        for (; index < table[bucketIndex].length; index++) {
-            newBucket[index] = table[bucketIndex][index];
+    // makes room for 'capacity' elements with the table at most half full
+    private void allocate(int capacity) {
+        int tableSize = MINIMUM_TABLE_SIZE;
+        while (tableSize < 2 * capacity) {
+            tableSize *= 2;
         }
-        for (; index < newBucket.length; index++) {
-            newBucket[index] = NULL_ELEMENT;
+        table = new int[tableSize];
+        elements = new int[tableSize / 2];
+        size = 0;
+    }
+
+    private void grow() {
+        int[] previous = elements;
+        int previousSize = size;
+        allocate(2 * previous.length);
+        for (int i = 0; i < previousSize; i++) {
+            elements[i] = previous[i];
+            table[find(previous[i])] = i + 1;
         }
-        table[bucketIndex] = newBucket;
+        size = previousSize;
     }
 
     private int hash(int element) {
-        return element;
+        int h = element * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     public Iter iterator() {
@@ -166,77 +184,77 @@ public class CompactHashSet implements Serializable {
         return s;
     }
 
+    // the bucketed version wrote its bucket count, the size and the
+    // elements; the bucket count is read and written as the capacity
     private void readObject(ObjectInputStream ois)
         throws IOException, ClassNotFoundException {
-        table = new int[ois.readInt()][];
+        ois.readInt();
         int elements = ois.readInt();
+        allocate(elements);
         for (; elements > 0; elements--) {
             add(ois.readInt());
         }
     }
 
     private void writeObject(ObjectOutputStream oos) throws IOException {
-        oos.writeInt(table.length);
+        oos.writeInt(Math.max(elements.length, 1));
         oos.writeInt(size());
-        Iter iter = iterator();
-        while (iter.hasNext()) {
-            oos.writeInt(iter.next());
+        for (int i = 0; i < size; i++) {
+            oos.writeInt(elements[i]);
+        }
+    }
+
+    // an ObjectInputStream that also reads sets written by the bucketed
+    // version when it was compiled with a later JDK
+    public static class Input extends ObjectInputStream {
+
+        public Input(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+            throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            if (descriptor.getName().equals(CompactHashSet.class.getName()) &&
+                descriptor.getSerialVersionUID() == LATER_BUCKETED_UID) {
+                return ObjectStreamClass.lookup(CompactHashSet.class);
+            }
+            return descriptor;
         }
     }
 
     public static class Iter {
 
         private CompactHashSet set;
-        private int row;
-        private int col;
-        private int prevCol;
-        private int prevRow;
+        private int position;    // of the next element, counting down
+        private boolean removable;
 
         public Iter(CompactHashSet set) {
             this.set = set;
-            row = 0;
-            col = -1;
-            prevRow = row;
-            prevCol = col;
-
-            moveToNext();
-        }
-
-        private void moveToNext() {
-            col++;
-            while (row < set.table.length) {
-                if (set.table[row] != null && col < set.table[row].length) {
-                    for (; col < set.table[row].length; col++) {
-                        if (set.table[row][col] != NULL_ELEMENT) {
-                            return;
-                        }
-                    }
-                }
-                col = 0;
-                row++;
-            }
+            position = set.size - 1;
+            removable = false;
         }
 
         public boolean hasNext() {
-            return row < set.table.length;
+            return position >= 0;
         }
 
         public int next() throws NoSuchElementException {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            prevRow = row;
-            prevCol = col;
-            moveToNext();
-            return set.table[prevRow][prevCol];
+            removable = true;
+            return set.elements[position--];
         }
 
+        // removes the element last returned by next()
         public void remove() throws IllegalStateException {
-            if (prevCol == -1 || set.table[prevRow][prevCol] == NULL_ELEMENT) {
+            if (!removable) {
                 throw new IllegalStateException();
             }
-            set.table[prevRow][prevCol] = NULL_ELEMENT;
-            set.size--;
+            removable = false;
+            set.removeAt(set.find(set.elements[position + 1]));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,236 @@
+// CountRuns.java
+//
+// Subgraph counts kept on local disk as sorted runs, for counts with more
+// distinct keys than fit in memory (see --memory-limit). Each thread
+// writes its counting table as a run when it is full and then clears it
+// (see Enumerator.setSpilling()); when counting is done, merge() streams
+// the counts of all runs in key order, adding up the counts of a key that
+// is in several runs, so they can be labeled in batches (see Labeler).
+//
+// A run file holds every key of the table and its count (long each) in
+// increasing key order. At most FAN_IN runs are read at once; if there are
+// more, groups of them are first merged into longer runs. Runs are
+// temporary files, deleted by clear() or when the JVM exits.
+
+import java.io.*;
+import java.util.*;
+
+public class CountRuns {
+
+    // the number of runs merged at once
+    private static final int FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // the bytes of a full counting table per key: its slots (see
+    // LongCountMap) and the sorted copy of its keys when it is written
+    private static final int TABLE_BYTES_PER_KEY = 16 * 4 / 3 + 8;
+
+    private File directory;
+    private String prefix;
+    private List<File> runs;
+
+    // totals since the runs were created, for reports
+    private long runsWritten;
+    private long bytesWritten;
+
+    // keeps the runs of a rank in the given directory, creating it if
+    // necessary
+    public CountRuns(String directory, int rank) throws IOException {
+        this.directory = new File(directory);
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException(
+                "cannot create directory '" + directory + "'");
+        }
+        this.prefix = "counts-" + rank + "-";
+        this.runs = new ArrayList<File>();
+    }
+
+    // the number of keys a counting table may hold before it is written,
+    // so that it takes at most about 'bytes' of memory
+    public static int tableSize(long bytes) {
+        return (int)Math.min(Integer.MAX_VALUE / 2,
+                             Math.max(1, bytes / TABLE_BYTES_PER_KEY));
+    }
+
+    // true if no counts have been written since the last clear()
+    public synchronized boolean isEmpty() {
+        return runs.isEmpty();
+    }
+
+    public synchronized long getRunsWritten() {
+        return runsWritten;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // writes the counts as a new run (the map itself is not changed)
+    public void write(LongCountMap counts) throws IOException {
+        long[] keys = new long[counts.size()];
+        LongCountMap.Iter iter = counts.iterator();
+        for (int i = 0; iter.hasNext(); i++) {
+            keys[i] = iter.next();
+        }
+        Arrays.sort(keys);
+
+        File file = createRun();
+        DataOutputStream out = openRun(file);
+        try {
+            for (long key:keys) {
+                out.writeLong(key);
+                out.writeLong(counts.get(key));
+            }
+        } finally {
+            out.close();
+        }
+        added(file);
+    }
+
+    // streams the counts of every run in key order; close() the stream
+    // before calling clear()
+    public synchronized Merge merge() throws IOException {
+        while (runs.size() > FAN_IN) {
+            List<File> group = new ArrayList<File>(runs.subList(0, FAN_IN));
+            runs.subList(0, FAN_IN).clear();
+
+            File file = createRun();
+            DataOutputStream out = openRun(file);
+            Merge merge = new Merge(group);
+            try {
+                while (merge.hasNext()) {
+                    out.writeLong(merge.next());
+                    out.writeLong(merge.count());
+                }
+            } finally {
+                merge.close();
+                out.close();
+            }
+            for (File run:group) {
+                run.delete();
+            }
+            runs.add(file);
+        }
+        return new Merge(runs);
+    }
+
+    // deletes every run
+    public synchronized void clear() {
+        for (File run:runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private File createRun() throws IOException {
+        File file = File.createTempFile(prefix, ".run", directory);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static DataOutputStream openRun(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    private synchronized void added(File file) {
+        runs.add(file);
+        runsWritten++;
+        bytesWritten += file.length();
+    }
+
+    // the next key of a run and its count
+    private static class Input {
+
+        private DataInputStream in;
+        private long left;        // keys not read yet
+        private long key;
+        private long count;
+
+        public Input(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE));
+            left = file.length() / 16;
+        }
+
+        // reads the next key, returning false at the end of the run
+        public boolean advance() throws IOException {
+            if (left == 0) {
+                return false;
+            }
+            key = in.readLong();
+            count = in.readLong();
+            left--;
+            return true;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // the counts of several runs in key order, each key once with the sum
+    // of its counts; used like LongCountMap.Iter
+    public static class Merge implements Closeable {
+
+        private PriorityQueue<Input> queue;
+        private long count;
+
+        private Merge(List<File> runs) throws IOException {
+            queue = new PriorityQueue<Input>(Math.max(1, runs.size()),
+                new Comparator<Input>() {
+                    public int compare(Input a, Input b) {
+                        return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+                    }
+                });
+            try {
+                for (File run:runs) {
+                    Input input = new Input(run);
+                    if (input.advance()) {
+                        queue.add(input);
+                    } else {
+                        input.close();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        // returns the next key; its count is then available from count()
+        public long next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long key = queue.peek().key;
+            count = 0;
+            while (!queue.isEmpty() && queue.peek().key == key) {
+                Input input = queue.poll();
+                count += input.count;
+                if (input.advance()) {
+                    queue.add(input);
+                } else {
+                    input.close();
+                }
+            }
+            return key;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public void close() throws IOException {
+            for (Input input:queue) {
+                input.close();
+            }
+            queue.clear();
+        }
+    }
+}
@@ -2,49 +2,81 @@
 
 import java.util.*;
 
-import mpi.*;
-
 public class Driver {
-    public static void main(String[] args) throws MPIException {
+    public static void main(String[] args)
+        throws CommunicationException, InterruptedException {
         // verify arguments
-        if (args.length < 4) {
-            System.out.println(
-                "usage: Driver nodes threads_per_node " +
-                "data_file motif_size [--show-results]");
+        Options options = null;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(Options.USAGE);
             System.exit(-1);
         }
 
-        // determine if results should be printed
-        boolean showResults = false;
-        if (args.length == 5 && args[4].equals("--show-results")) {
-            showResults = true;
+        if (options.getLocalRanks() > 0) {
+            runLocal(options);
+            return;
         }
 
-
         // Start the MPI library.
-        MPI.Init(args);
+        MpiCommunicator communicator = new MpiCommunicator(args);
 
-        if (MPI.COMM_WORLD.Rank() == 0) {
+        if (communicator.rank() == 0) {
             System.out.println(args[0] + " nodes, " + args[1] + " threads");
         }
 
         long start = System.currentTimeMillis();
 
         // run the program
-        Main app = new Main(
-            Integer.parseInt(args[1]),
-            args[2],
-            Integer.parseInt(args[3]),
-            showResults);
+        Main app = new Main(options, communicator);
         app.run();
 
-        if (MPI.COMM_WORLD.Rank() == 0) {
+        if (communicator.rank() == 0) {
             System.out.println(
                 (System.currentTimeMillis() - start) + " milliseconds to " +
                 "complete the program");
         }
 
         // Terminate the MPI library.
-        MPI.Finalize();
+        communicator.finish();
+    }
+
+    // runs every rank on its own thread of this JVM, without MPI. A rank
+    // that fails ends the run, as the others would wait for it forever.
+    private static void runLocal(final Options options)
+        throws InterruptedException {
+        int ranks = options.getLocalRanks();
+        System.out.println(ranks + " local nodes, " + options.getThreads() +
+                           " threads");
+        long start = System.currentTimeMillis();
+
+        SharedMemoryCommunicator[] communicators =
+            SharedMemoryCommunicator.create(ranks);
+        Thread[] threads = new Thread[ranks];
+        for (int i = 0; i < ranks; i++) {
+            final Communicator communicator = communicators[i];
+            threads[i] = new Thread("rank-" + i) {
+                public void run() {
+                    try {
+                        new Main(options, communicator).run();
+                    } catch (Throwable e) {
+                        System.out.println("Rank " + communicator.rank() +
+                            " failed: " + e);
+                        e.printStackTrace();
+                        communicator.abort(-1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread:threads) {
+            thread.join();
+        }
+
+        System.out.println(
+            (System.currentTimeMillis() - start) + " milliseconds to " +
+            "complete the program");
     }
 }
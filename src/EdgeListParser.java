@@ -0,0 +1,499 @@
+// EdgeListParser.java
+//
+// Multi-threaded parser for edge list data files (see README). The file is
+// memory-mapped and split into chunks at line boundaries. Worker threads
+// take chunks in turn and tokenize their bytes in place: the first two
+// whitespace separated names of each line form an edge, the rest of the
+// line is ignored. Each chunk numbers the names it meets in its own
+// dictionary, so the threads never contend; the dictionaries are merged in
+// file order afterwards, which gives every node the index of its first
+// appearance in the file.
+//
+// Self edges and repeated edges are dropped while building the CSR arrays.
+// To avoid clustering (data collection bias) the node indexes are then
+// randomly permuted, unless no Random is given.
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EdgeListParser {
+
+    private static final int MAX_CHUNK_SIZE = 64 << 20;
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final int FNV_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    // a byte range of the file holding whole lines, with the names and
+    // edges found in it (edges as pairs of indexes into 'names')
+    private static class Chunk {
+
+        private long start;
+        private long end;
+        private NameTable names = new NameTable();
+        private int[] edges = new int[64];
+        private int edgeCount;
+
+        public Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public void addEdge(int from, int to) {
+            if (2 * edgeCount + 2 > edges.length) {
+                edges = Arrays.copyOf(edges, 2 * edges.length);
+            }
+            edges[2 * edgeCount] = from;
+            edges[(2 * edgeCount) + 1] = to;
+            edgeCount++;
+        }
+    }
+
+    // open-addressing dictionary from names (byte strings) to indexes
+    // 0, 1, 2, ... in order of insertion. The names are kept back to back
+    // in one byte array.
+    private static class NameTable {
+
+        private byte[] bytes = new byte[1024];
+        private int byteCount;
+        private int[] starts = new int[65];  // name i: [starts[i], starts[i+1])
+        private int[] hashes = new int[64];
+        private int size;
+        private int[] slots = new int[128];  // index + 1, or 0 if empty
+        private int shift = 32 - 7;
+
+        // returns the index of the name source[from, from + length), adding
+        // it if it is new. 'hash' must be the FNV-1a hash of the name.
+        public int intern(ByteBuffer source, int from, int length,
+                          int hash) {
+            int mask = slots.length - 1;
+            int slot = slotFor(hash);
+            while (slots[slot] != 0) {
+                int index = slots[slot] - 1;
+                if (hashes[index] == hash &&
+                    matches(index, source, from, length)) {
+                    return index;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (byteCount + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes,
+                    Math.max(2 * bytes.length, byteCount + length));
+            }
+            for (int i = 0; i < length; i++) {
+                bytes[byteCount + i] = source.get(from + i);
+            }
+            byteCount += length;
+
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, 2 * hashes.length);
+                starts = Arrays.copyOf(starts, hashes.length + 1);
+            }
+            int index = size++;
+            hashes[index] = hash;
+            starts[index + 1] = byteCount;
+            slots[slot] = index + 1;
+
+            if (4 * size > 3 * slots.length) {
+                grow();
+            }
+            return index;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String getName(int index) {
+            return new String(bytes, starts[index],
+                starts[index + 1] - starts[index], StandardCharsets.UTF_8);
+        }
+
+        private boolean matches(int index, ByteBuffer source, int from,
+                                int length) {
+            int start = starts[index];
+            if (starts[index + 1] - start != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[start + i] != source.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int slotFor(int hash) {
+            return (hash * 0x9e3779b9) >>> shift;
+        }
+
+        // doubles the slot array and reinserts every name
+        private void grow() {
+            slots = new int[2 * slots.length];
+            shift--;
+            int mask = slots.length - 1;
+            for (int index = 0; index < size; index++) {
+                int slot = slotFor(hashes[index]);
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = index + 1;
+            }
+        }
+    }
+
+    // parses chunks until none are left
+    private class Worker extends Thread {
+
+        private IOException failure;
+
+        public void run() {
+            int chunk = nextChunk.getAndIncrement();
+            while (chunk < chunks.size() && !failed) {
+                try {
+                    parseChunk(chunks.get(chunk));
+                } catch (IOException e) {
+                    failure = e;
+                    failed = true;
+                    return;
+                }
+                chunk = nextChunk.getAndIncrement();
+            }
+        }
+    }
+
+    // sorts the neighbours of the nodes in [from, to) and removes repeats,
+    // leaving the number of distinct neighbours of each node in 'degrees'
+    private class SortThread extends Thread {
+
+        private int from;
+        private int to;
+
+        public SortThread(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            for (int node = from; node < to; node++) {
+                int start = offsets[node];
+                int end = offsets[node + 1];
+                Arrays.sort(neighbours, start, end);
+                int last = start;
+                for (int i = start + 1; i < end; i++) {
+                    if (neighbours[i] != neighbours[last]) {
+                        neighbours[++last] = neighbours[i];
+                    }
+                }
+                degrees[node] = end > start ? last - start + 1 : 0;
+            }
+        }
+    }
+
+    private String filename;
+    private int nThreads;
+    private Random random;
+
+    private FileChannel channel;
+    private List<Chunk> chunks;
+    private AtomicInteger nextChunk;
+    private volatile boolean failed;
+
+    private int[] offsets;
+    private int[] neighbours;
+    private int[] degrees;
+    private String[] names;
+
+    // 'random' permutes the node indexes; null keeps the order of first
+    // appearance in the file
+    public EdgeListParser(String filename, int nThreads, Random random) {
+        this.filename = filename;
+        this.nThreads = nThreads;
+        this.random = random;
+    }
+
+    // parses the file, after which the getters return the graph
+    public void parse() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            channel = file.getChannel();
+            split(file);
+            parseChunks();
+        } finally {
+            file.close();
+        }
+
+        // number the nodes across chunks: chunk c's name i is node
+        // ids[c][i] of the graph
+        NameTable all = new NameTable();
+        int[][] ids = new int[chunks.size()][];
+        for (int c = 0; c < chunks.size(); c++) {
+            NameTable local = chunks.get(c).names;
+            ByteBuffer source = ByteBuffer.wrap(local.bytes);
+            ids[c] = new int[local.size()];
+            for (int i = 0; i < local.size(); i++) {
+                ids[c][i] = all.intern(source, local.starts[i],
+                    local.starts[i + 1] - local.starts[i], local.hashes[i]);
+            }
+        }
+        int nodes = all.size();
+
+        int[] permutation = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            permutation[i] = i;
+        }
+        if (random != null) {
+            for (int i = nodes - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = swap;
+            }
+        }
+        for (int c = 0; c < chunks.size(); c++) {
+            for (int i = 0; i < ids[c].length; i++) {
+                ids[c][i] = permutation[ids[c][i]];
+            }
+        }
+
+        names = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            names[permutation[i]] = all.getName(i);
+        }
+        all = null;
+
+        buildArrays(nodes, ids);
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    // divides the file into chunks that end at line breaks
+    private void split(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        long target = length / (CHUNKS_PER_THREAD * (long)nThreads);
+        long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                                  Math.min(MAX_CHUNK_SIZE, target));
+
+        chunks = new ArrayList<Chunk>();
+        long start = 0;
+        while (start < length) {
+            long end = Math.min(start + chunkSize, length);
+            if (end < length) {
+                end = nextLine(file, end - 1, length);
+            }
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException(filename + " has a line longer than " +
+                    "2GB");
+            }
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+    }
+
+    // the position after the first line break at or after 'position'
+    private static long nextLine(RandomAccessFile file, long position,
+                                 long length) throws IOException {
+        byte[] buffer = new byte[4096];
+        file.seek(position);
+        while (position < length) {
+            int read = file.read(buffer);
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return length;
+    }
+
+    // runs the workers over all chunks
+    private void parseChunks() throws IOException {
+        nextChunk = new AtomicInteger();
+        failed = false;
+
+        Worker[] workers = new Worker[Math.min(nThreads, chunks.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            workers[i].start();
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while parsing");
+            }
+            if (workers[i].failure != null) {
+                failure = workers[i].failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // tokenizes one chunk. Lines with fewer than two names are skipped.
+    private void parseChunk(Chunk chunk) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+            chunk.start, chunk.end - chunk.start);
+        int length = buffer.limit();
+        int tokens = 0;
+        int firstStart = 0;
+        int firstLength = 0;
+        int firstHash = 0;
+        int i = 0;
+        while (i < length) {
+            byte b = buffer.get(i);
+            if (b == '\n') {
+                tokens = 0;
+                i++;
+                continue;
+            }
+            if ((b & 0xff) <= ' ') {
+                i++;
+                continue;
+            }
+
+            // a name: everything up to the next whitespace byte
+            int start = i;
+            int hash = FNV_BASIS;
+            while (i < length && ((b = buffer.get(i)) & 0xff) > ' ') {
+                hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+                i++;
+            }
+            if (tokens == 0) {
+                firstStart = start;
+                firstLength = i - start;
+                firstHash = hash;
+            } else if (tokens == 1) {
+                int from = chunk.names.intern(buffer, firstStart,
+                                              firstLength, firstHash);
+                int to = chunk.names.intern(buffer, start, i - start, hash);
+                chunk.addEdge(from, to);
+            }
+            tokens++;
+        }
+    }
+
+    // builds the CSR arrays from the chunks' edges, given the node index
+    // of every name of every chunk
+    private void buildArrays(int nodes, int[][] ids) throws IOException {
+        // count both directions of every edge except self edges
+        offsets = new int[nodes + 1];
+        for (int c = 0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            int[] chunkIds = ids[c];
+            for (int e = 0; e < 2 * chunk.edgeCount; e += 2) {
+                int from = chunkIds[chunk.edges[e]];
+                int to = chunkIds[chunk.edges[e + 1]];
+                if (from != to) {
+                    offsets[from + 1]++;
+                    offsets[to + 1]++;
+                }
+            }
+        }
+        long total = 0;
+        for (int i = 0; i < nodes; i++) {
+            total += offsets[i + 1];
+            if (total > Integer.MAX_VALUE) {
+                throw new IOException(filename + " has too many edges");
+            }
+            offsets[i + 1] = (int)total;
+        }
+
+        neighbours = new int[offsets[nodes]];
+        int[] next = Arrays.copyOf(offsets, nodes);
+        for (int c = 0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            int[] chunkIds = ids[c];
+            for (int e = 0; e < 2 * chunk.edgeCount; e += 2) {
+                int from = chunkIds[chunk.edges[e]];
+                int to = chunkIds[chunk.edges[e + 1]];
+                if (from != to) {
+                    neighbours[next[from]++] = to;
+                    neighbours[next[to]++] = from;
+                }
+            }
+            chunks.set(c, null);
+        }
+        next = null;
+
+        // sort each node's neighbours and drop repeated edges, splitting
+        // the nodes so every thread gets about the same number of entries
+        degrees = new int[nodes];
+        SortThread[] sorters = new SortThread[Math.max(1, nThreads)];
+        int from = 0;
+        for (int t = 0; t < sorters.length; t++) {
+            int to = nodes;
+            if (t < sorters.length - 1) {
+                long bound = (long)neighbours.length * (t + 1) /
+                             sorters.length;
+                to = Math.max(from, upperBound(offsets, (int)bound));
+            }
+            sorters[t] = new SortThread(from, to);
+            sorters[t].start();
+            from = to;
+        }
+        for (int t = 0; t < sorters.length; t++) {
+            try {
+                sorters[t].join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while parsing");
+            }
+        }
+
+        // close the gaps left by the repeats
+        int index = 0;
+        for (int node = 0; node < nodes; node++) {
+            int start = offsets[node];
+            System.arraycopy(neighbours, start, neighbours, index,
+                             degrees[node]);
+            offsets[node] = index;
+            index += degrees[node];
+        }
+        offsets[nodes] = index;
+        if (index < neighbours.length) {
+            neighbours = Arrays.copyOf(neighbours, index);
+        }
+        degrees = null;
+    }
+
+    // the number of nodes whose neighbours start at or before 'entry'
+    private static int upperBound(int[] offsets, int entry) {
+        int low = 0;
+        int high = offsets.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] <= entry) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,93 @@
+// EdgeSwitcher.java
+//
+// Generates random graphs with the same degree sequence as a given graph by
+// edge switching: two edges a-b and c-d are repeatedly replaced by a-d and
+// c-b, unless that would create a self edge or an edge that already exists.
+// Every node keeps its degree, so motif counts of the switched graphs show
+// what is expected from the degrees alone.
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class EdgeSwitcher {
+
+    // successful switches per edge (a common choice that leaves no trace of
+    // the original edges in practice)
+    public static final int DEFAULT_SWITCHES_PER_EDGE = 3;
+
+    // switches that fail are retried, up to this many attempts per switch,
+    // so dense graphs where few switches are possible still finish
+    private static final int ATTEMPTS_PER_SWITCH = 10;
+
+    // returns a random graph with the degree sequence of 'graph'
+    public static Graph randomize(Graph graph, int switchesPerEdge,
+                                  Random random) {
+        int nodes = graph.size();
+        int[] neighbours = graph.getNeighbours();
+
+        // each edge once, as from < to
+        int edges = neighbours.length / 2;
+        int[] from = new int[edges];
+        int[] to = new int[edges];
+        LongCountMap present = new LongCountMap(edges);
+        int e = 0;
+        for (int v = 0; v < nodes; v++) {
+            for (int j = graph.upperBound(v, v); j < graph.end(v); j++) {
+                from[e] = v;
+                to[e] = neighbours[j];
+                present.increment(key(v, neighbours[j]));
+                e++;
+            }
+        }
+
+        if (edges >= 2) {
+            long switches = (long)switchesPerEdge * edges;
+            long attempts = switches * ATTEMPTS_PER_SWITCH;
+            for (long done = 0; done < switches && attempts > 0; attempts--) {
+                int i = random.nextInt(edges);
+                int j = random.nextInt(edges);
+                int a = from[i];
+                int b = to[i];
+                int c = from[j];
+                int d = to[j];
+                if (random.nextBoolean()) {
+                    c = to[j];
+                    d = from[j];
+                }
+                if (i == j || a == d || c == b ||
+                    present.get(key(a, d)) != 0 ||
+                    present.get(key(c, b)) != 0) {
+                    continue;
+                }
+
+                present.remove(key(a, b));
+                present.remove(key(c, d));
+                present.increment(key(a, d));
+                present.increment(key(c, b));
+                from[i] = Math.min(a, d);
+                to[i] = Math.max(a, d);
+                from[j] = Math.min(c, b);
+                to[j] = Math.max(c, b);
+                done++;
+            }
+        }
+
+        // the degrees are unchanged, so the offsets can be reused
+        int[] offsets = Arrays.copyOf(graph.getOffsets(), nodes + 1);
+        int[] next = Arrays.copyOf(offsets, nodes);
+        int[] switched = new int[neighbours.length];
+        for (int i = 0; i < edges; i++) {
+            switched[next[from[i]]++] = to[i];
+            switched[next[to[i]]++] = from[i];
+        }
+        for (int v = 0; v < nodes; v++) {
+            Arrays.sort(switched, offsets[v], offsets[v + 1]);
+        }
+        return new Graph(offsets, switched);
+    }
+
+    // the set key of the undirected edge x-y
+    private static long key(int x, int y) {
+        return ((long)Math.min(x, y) << 32) | Math.max(x, y);
+    }
+}
@@ -0,0 +1,480 @@
+// EnumerationPool.java
+//
+// Enumerates the subgraphs of many roots on a fork/join pool. Ranges of
+// roots are split in half until they are small, and the ESU tree of a root
+// with many neighbours above it is split into one task per branch (see
+// Enumerator.enumerateBranch()), so idle threads can steal the work of a few
+// high degree roots instead of waiting for them.
+//
+// Roots are either a fixed arithmetic sequence or chunks requested from a
+// RootDispenser until it runs out.
+//
+// Each worker thread has its own Enumerator, created on first use; the
+// counts of all of them are merged once the pool is done. Workers also
+// measure the time they spend enumerating, to report how busy a rank was.
+//
+// With a Checkpoint, units (roots or branches) completed in an earlier run
+// are skipped, and every worker records the units it completes and
+// periodically writes them with its counts.
+//
+// With spilling, every worker writes its counts to sorted runs on disk when
+// they fill its share of memory (see CountRuns), and mergeCounts() streams
+// the counts of all of them instead of getCounts().
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+public class EnumerationPool {
+
+    // ranges of at most this many roots are not split further
+    private static final int ROOTS_PER_TASK = 16;
+
+    // roots with at least this many branches have them enumerated as
+    // separate tasks
+    private static final int SPLIT_BRANCHES = 32;
+
+    // enumerates the roots first + (stride * n) for n in [from, to)
+    private class RootsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int first;
+        private int stride;
+        private int from;
+        private int to;
+
+        public RootsTask(int first, int stride, int from, int to) {
+            this.first = first;
+            this.stride = stride;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > ROOTS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RootsTask(first, stride, from, middle),
+                          new RootsTask(first, stride, middle, to));
+                return;
+            }
+
+            // fork the branches of large roots, and only join them after
+            // the enumerator has finished every other root of the range
+            Worker worker = workers.get();
+            Enumerator enumerator = worker.enumerator;
+            long start = System.nanoTime();
+            List<BranchTask> forked = new ArrayList<BranchTask>();
+            for (int n = from; n < to; n++) {
+                int root = first + (stride * n);
+                if (isCompleted(root, -1)) {
+                    continue;
+                }
+
+                // a root with completed branches is finished branch by
+                // branch
+                int branches = enumerator.branches(root);
+                boolean partial = checkpoint != null &&
+                                  checkpoint.hasDoneBranches(root);
+                if (branches >= SPLIT_BRANCHES && parallelism > 1 &&
+                    enumerator.splitsRoots()) {
+                    for (int branch = 0; branch < branches; branch++) {
+                        if (!isCompleted(root, branch)) {
+                            BranchTask task = new BranchTask(root, branch);
+                            task.fork();
+                            forked.add(task);
+                        }
+                    }
+                } else if (partial) {
+                    for (int branch = 0; branch < branches; branch++) {
+                        if (!isCompleted(root, branch)) {
+                            long branchStart = System.nanoTime();
+                            enumerator.enumerateBranch(root, branch);
+                            worker.timed(root,
+                                         System.nanoTime() - branchStart);
+                            completed(worker, root, branch);
+                        }
+                    }
+                } else {
+                    long rootStart = System.nanoTime();
+                    enumerator.enumerate(root);
+                    worker.timed(root, System.nanoTime() - rootStart);
+                    completed(worker, root, -1);
+                }
+            }
+            worker.busyTime += System.nanoTime() - start;
+            for (BranchTask task:forked) {
+                task.join();
+            }
+        }
+    }
+
+    // enumerates a single branch of a root
+    private class BranchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private int root;
+        private int branch;
+
+        public BranchTask(int root, int branch) {
+            this.root = root;
+            this.branch = branch;
+        }
+
+        protected void compute() {
+            Worker worker = workers.get();
+            long start = System.nanoTime();
+            worker.enumerator.enumerateBranch(root, branch);
+            worker.timed(root, System.nanoTime() - start);
+            completed(worker, root, branch);
+            worker.busyTime += System.nanoTime() - start;
+        }
+    }
+
+    // takes chunks of roots from the dispenser until there are none left
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private RootDispenser dispenser;
+
+        public ChunkTask(RootDispenser dispenser) {
+            this.dispenser = dispenser;
+        }
+
+        protected void compute() {
+            int first = dispenser.next();
+            while (first >= 0) {
+                int roots = Math.min(dispenser.getChunkSize(),
+                                     graph.size() - first);
+                new RootsTask(first, 1, 0, roots).invoke();
+                first = dispenser.next();
+            }
+        }
+    }
+
+    // the state of one pool thread
+    private static class Worker {
+
+        private Enumerator enumerator;
+        private int index;
+        private long busyTime;    // nanoseconds
+
+        // the units completed (only recorded with a checkpoint), and when
+        // they were last written
+        private long[] units = new long[16];
+        private int unitCount;
+        private long lastCheckpoint = System.currentTimeMillis();
+
+        // the number of roots and branches enumerated, and the longest
+        // of them, for progress reports
+        private long unitsDone;
+        private long longestUnit;  // nanoseconds
+        private int longestRoot;
+
+        public Worker(Enumerator enumerator) {
+            this.enumerator = enumerator;
+        }
+
+        public void timed(int root, long time) {
+            unitsDone++;
+            if (time > longestUnit) {
+                longestUnit = time;
+                longestRoot = root;
+            }
+        }
+    }
+
+    private Graph graph;
+    private int motifSize;
+    private MotifTable table;
+    private int parallelism;
+    private double[] probabilities;
+    private long seed;
+    private int minimumSize;
+    private CountRuns runs;
+    private int spillSize;
+    private Checkpoint checkpoint;
+    private ForkJoinPool pool;
+    private List<Worker> created;
+    private ThreadLocal<Worker> workers;
+
+    // counts by motif id if 'table' is not null (see Enumerator)
+    public EnumerationPool(Graph graph, int motifSize, MotifTable table,
+                           int nThreads) {
+        this.graph = graph;
+        this.motifSize = motifSize;
+        this.minimumSize = motifSize;
+        this.table = table;
+        this.parallelism = nThreads;
+        this.pool = new ForkJoinPool(nThreads);
+        this.created = new ArrayList<Worker>();
+        this.workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {
+                Worker worker = new Worker(new Enumerator(
+                    EnumerationPool.this.graph,
+                    EnumerationPool.this.motifSize,
+                    EnumerationPool.this.table));
+                worker.enumerator.setSampling(
+                    EnumerationPool.this.probabilities,
+                    EnumerationPool.this.seed);
+                worker.enumerator.setMinimumSize(
+                    EnumerationPool.this.minimumSize);
+                if (EnumerationPool.this.runs != null) {
+                    worker.enumerator.setSpilling(
+                        EnumerationPool.this.runs,
+                        EnumerationPool.this.spillSize);
+                }
+                synchronized (created) {
+                    worker.index = created.size();
+                    created.add(worker);
+                }
+                return worker;
+            }
+        };
+    }
+
+    // samples the ESU trees of all threads (see Enumerator.setSampling()),
+    // or enumerates them fully if 'probabilities' is null (only while no
+    // enumeration is running)
+    public void setSampling(double[] probabilities, long seed) {
+        this.probabilities = probabilities;
+        this.seed = seed;
+        synchronized (created) {
+            for (Worker worker:created) {
+                worker.enumerator.setSampling(probabilities, seed);
+            }
+        }
+    }
+
+    // also counts the smaller subgraphs from 'minimumSize' up (see
+    // Enumerator.setMinimumSize(), only while no enumeration is running)
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = minimumSize;
+        synchronized (created) {
+            for (Worker worker:created) {
+                worker.enumerator.setMinimumSize(minimumSize);
+            }
+        }
+    }
+
+    // spills the counts of every thread to 'runs' whenever they reach
+    // 'patterns' keys (see Enumerator.setSpilling(), only while no
+    // enumeration is running)
+    public void setSpilling(CountRuns runs, int patterns) {
+        this.runs = runs;
+        this.spillSize = patterns;
+        synchronized (created) {
+            for (Worker worker:created) {
+                worker.enumerator.setSpilling(runs, patterns);
+            }
+        }
+    }
+
+    // skips the units the checkpoint marks as done, adds its base counts
+    // to the results and writes the completed units of every thread to it
+    // (only while no enumeration is running)
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    // writes the checkpoint file of every thread that has started, so all
+    // units completed so far are saved
+    public void writeCheckpoints() {
+        synchronized (created) {
+            for (Worker worker:created) {
+                writeCheckpoint(worker);
+            }
+        }
+    }
+
+    // switches every thread to another graph with cleared counts, keeping
+    // their Enumerators, and stops checkpointing (only while no enumeration
+    // is running)
+    public void reset(Graph graph) {
+        this.graph = graph;
+        this.checkpoint = null;
+        synchronized (created) {
+            for (Worker worker:created) {
+                worker.enumerator.reset(graph);
+                worker.unitCount = 0;
+            }
+        }
+    }
+
+    // enumerates the roots first + (stride * n) that are in the graph and
+    // waits for all of them to complete
+    public void enumerate(int first, int stride) {
+        int roots = first < graph.size()
+                    ? ((graph.size() - first) + stride - 1) / stride : 0;
+        pool.invoke(new RootsTask(first, stride, 0, roots));
+    }
+
+    // enumerates chunks of roots handed out by the dispenser until it has
+    // none left, with one requesting task per thread; the calling thread
+    // does the dispenser's communication meanwhile (see RootDispenser.run())
+    public void enumerate(final RootDispenser dispenser)
+        throws CommunicationException {
+        ForkJoinTask<Void> task = pool.submit(new RecursiveAction() {
+            protected void compute() {
+                try {
+                    ChunkTask[] tasks = new ChunkTask[parallelism];
+                    for (int i = 0; i < parallelism; i++) {
+                        tasks[i] = new ChunkTask(dispenser);
+                    }
+                    invokeAll(tasks);
+                } finally {
+                    dispenser.stop();
+                }
+            }
+        });
+        dispenser.run();
+        task.join();
+    }
+
+    // the time spent enumerating, averaged over the pool's threads
+    public long getBusyMillis() {
+        long total = 0;
+        synchronized (created) {
+            for (Worker worker:created) {
+                total += worker.busyTime;
+            }
+        }
+        return total / parallelism / 1000000;
+    }
+
+    // a snapshot of the progress of each thread, for reports while the
+    // pool is running (so values may lag): see Metrics.THREAD_FIELDS
+    public long[][] getThreadStatistics() {
+        synchronized (created) {
+            long[][] statistics = new long[created.size()][];
+            for (int i = 0; i < statistics.length; i++) {
+                Worker worker = created.get(i);
+                statistics[i] = new long[] {
+                    worker.unitsDone,
+                    worker.enumerator.getSubgraphs(),
+                    worker.enumerator.getPatterns(),
+                    worker.busyTime / 1000000,
+                    worker.longestUnit / 1000,
+                    worker.longestRoot
+                };
+            }
+            return statistics;
+        }
+    }
+
+    // the merged counts of every thread, keyed by AdjacencyMatrix.toKey()
+    // (see Enumerator.getCounts())
+    public LongCountMap getCounts() {
+        return getCounts(0);
+    }
+
+    // spills the counts every thread still holds, and streams the counts
+    // of all runs in key order (only with spilling, see setSpilling()).
+    // The runs stay until they are cleared.
+    public CountRuns.Merge mergeCounts() throws IOException {
+        synchronized (created) {
+            for (Worker worker:created) {
+                if (!worker.enumerator.getCounts(0).isEmpty()) {
+                    worker.enumerator.spill();
+                }
+            }
+        }
+        return runs.merge();
+    }
+
+    // the merged counts of every thread, indexed by motif id (only valid
+    // with a MotifTable)
+    public long[] getMotifCounts() {
+        return getMotifCounts(0);
+    }
+
+    // the number of sums counted: the counts, and with sampling the sums
+    // of squares of Sampling.sums()
+    public int sums() {
+        return probabilities != null ? Sampling.sums(motifSize) : 1;
+    }
+
+    // a merged sum of every thread (and of the checkpoint the pool resumed
+    // from), see Enumerator.getCounts()
+    public LongCountMap getCounts(int sum) {
+        LongCountMap counts = new LongCountMap();
+        if (checkpoint != null) {
+            counts.addAll(checkpoint.getBaseCounts(sum));
+        }
+        synchronized (created) {
+            for (Worker worker:created) {
+                counts.addAll(worker.enumerator.getCounts(sum));
+            }
+        }
+        return counts;
+    }
+
+    // a merged sum of every thread, indexed by motif id
+    public long[] getMotifCounts(int sum) {
+        long[] counts = new long[table.size()];
+        if (checkpoint != null) {
+            long[] baseCounts = checkpoint.getBaseMotifCounts(sum);
+            for (int id = 0; id < counts.length; id++) {
+                counts[id] += baseCounts[id];
+            }
+        }
+        synchronized (created) {
+            for (Worker worker:created) {
+                long[] motifCounts = worker.enumerator.getMotifCounts(sum);
+                for (int id = 0; id < counts.length; id++) {
+                    counts[id] += motifCounts[id];
+                }
+            }
+        }
+        return counts;
+    }
+
+    // true if a unit (see Checkpoint.unit()) was completed in an earlier
+    // run
+    private boolean isCompleted(int root, int branch) {
+        return checkpoint != null &&
+               checkpoint.isDone(Checkpoint.unit(root, branch));
+    }
+
+    // records a completed unit, and writes the worker's checkpoint file
+    // when it is due
+    private void completed(Worker worker, int root, int branch) {
+        if (checkpoint == null) {
+            return;
+        }
+        if (worker.unitCount == worker.units.length) {
+            worker.units = Arrays.copyOf(worker.units,
+                                         2 * worker.units.length);
+        }
+        worker.units[worker.unitCount++] = Checkpoint.unit(root, branch);
+        if (checkpoint.isDue(worker.lastCheckpoint)) {
+            writeCheckpoint(worker);
+        }
+    }
+
+    private void writeCheckpoint(Worker worker) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.write(worker.index, worker.units, worker.unitCount,
+                             worker.enumerator);
+        } catch (IOException e) {
+            // the run can go on, it just cannot be resumed from here
+            System.err.println("Unable to write checkpoint: " +
+                               e.getMessage());
+        }
+        worker.lastCheckpoint = System.currentTimeMillis();
+    }
+
+    // stops the pool's threads
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
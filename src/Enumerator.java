@@ -0,0 +1,459 @@
+// Enumerator.java
+//
+// Runs the ESU algorithm for one thread. The subgraph under construction and
+// the extension set of every depth are allocated once and reused, so
+// enumerating a subgraph does not allocate any objects. An Enumerator must
+// not be shared between threads.
+//
+// With sampling probabilities (RAND-ESU), a node is only added at depth d
+// (the root being depth 1) with probability p[d-1], so each subgraph is
+// counted with probability p[0] * ... * p[k-1]. The random choices of a
+// root's branch only depend on the seed, the root and the branch, so the
+// sample is the same however the roots and branches are distributed.
+// Besides the counts, a sampling Enumerator collects the sums of squares
+// of the subgraph counts below the sampled nodes of each depth, from which
+// Sampling estimates the variance (see SquareSums). These need the label
+// of every subgraph, so without a MotifTable the canonical key of each
+// packed key is looked up once per Enumerator and kept.
+//
+// Whether a node may join the extension set (it is neither in the subgraph
+// nor adjacent to it) is kept in a marker array over all nodes: adding a
+// node marks it and its neighbours above the root with the current depth,
+// and removing it clears those marks again, so each test is one array read.
+// Marks are also stamped with an epoch that changes with every root, so the
+// marks of the previous root never need clearing.
+//
+// With a minimum size below the motif size, the smaller subgraphs the ESU
+// tree passes through on the way to the motif size are counted as well, by
+// their packed key tagged with their order (see AdjacencyMatrix.withOrder()),
+// so all sizes are counted in one traversal.
+//
+// With spilling, the counts are written to sorted runs on disk whenever
+// they reach a given number of keys, and cleared (see CountRuns).
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Enumerator {
+
+    private Graph graph;
+    private int[] neighbours;
+    private Subgraph subgraph;
+
+    // number of occurrences of each packed subgraph adjacency, or of each
+    // motif id when a MotifTable is used ('counts' and 'motifCounts'), then
+    // with sampling the sums of squares by canonical key or motif id (see
+    // Sampling.sums())
+    private LongCountMap[] sumCounts;
+    private long[][] sumMotifCounts;
+    private LongCountMap counts;
+    private MotifTable table;
+    private long[] motifCounts;
+
+    // with sampling, the sums of squares being collected, and without a
+    // MotifTable the canonical key of every packed key seen so far
+    private SquareSums squares;
+    private LongCountMap canonicalKeys;
+    private CanonicalLabeler labeler;
+
+    // the number of subgraphs recorded since the Enumerator was created
+    private long subgraphs;
+
+    // the smallest size of subgraph that is counted
+    private int minimumSize;
+
+    // where the counts are spilled, and at how many keys (never without
+    // spilling)
+    private CountRuns runs;
+    private int spillSize = Integer.MAX_VALUE;
+
+    // extension set for each subgraph size (index 0 is unused)
+    private int[][] extensions;
+
+    // for each node, (epoch << DEPTH_BITS) | depth if it is in the subgraph
+    // or adjacent to it, depth being the subgraph size when it was first
+    // reached; anything below (epoch << DEPTH_BITS) is unmarked
+    private static final int DEPTH_BITS = 4;
+    private static final int MAX_EPOCH = Integer.MAX_VALUE >>> DEPTH_BITS;
+    private int[] marks;
+    private int epoch;
+
+    // RAND-ESU probability of each depth (null to enumerate everything),
+    // and the state of the random generator
+    private double[] probabilities;
+    private long seed;
+    private long random;
+
+    public Enumerator(Graph graph, int motifSize) {
+        this(graph, motifSize, null);
+    }
+
+    // counts subgraphs by motif id if 'table' is not null
+    public Enumerator(Graph graph, int motifSize, MotifTable table) {
+        this.graph = graph;
+        this.neighbours = graph.getNeighbours();
+        this.subgraph = new Subgraph(motifSize);
+        this.table = table;
+        this.minimumSize = motifSize;
+        this.marks = new int[graph.size()];
+        allocateSums(1);
+        this.extensions = new int[motifSize][];
+        for (int i = 1; i < motifSize; i++) {
+            extensions[i] = new int[16];
+        }
+    }
+
+    // samples the ESU tree with the given probability for each depth (see
+    // above), or enumerates all of it if 'probabilities' is null
+    // (this clears the counts)
+    public void setSampling(double[] probabilities, long seed) {
+        this.probabilities = probabilities;
+        this.seed = seed;
+        if (probabilities == null) {
+            allocateSums(1);
+            squares = null;
+            return;
+        }
+        allocateSums(Sampling.sums(subgraph.order()));
+        squares = new SquareSums(probabilities, sumCounts, sumMotifCounts);
+        if (table == null && canonicalKeys == null) {
+            canonicalKeys = new LongCountMap();
+            labeler = new CanonicalLabeler();
+        }
+    }
+
+    // also counts the subgraphs of sizes from 'minimumSize' up to the motif
+    // size (see above); not supported with sampling
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = minimumSize;
+    }
+
+    // writes the counts to 'runs' whenever they reach 'patterns' keys, and
+    // clears them (see above); not supported with sampling
+    public void setSpilling(CountRuns runs, int patterns) {
+        this.runs = runs;
+        this.spillSize = patterns;
+    }
+
+    // writes the counts as a run and clears them
+    public void spill() throws IOException {
+        runs.write(counts);
+        counts.clear();
+    }
+
+    // switches to another graph and clears the counts, keeping the buffers
+    public void reset(Graph graph) {
+        this.graph = graph;
+        this.neighbours = graph.getNeighbours();
+        if (marks.length != graph.size()) {
+            marks = new int[graph.size()];
+            epoch = 0;
+        }
+        for (int sum = 0; sum < sumCounts.length; sum++) {
+            sumCounts[sum].clear();
+            if (table != null) {
+                Arrays.fill(sumMotifCounts[sum], 0);
+            }
+        }
+    }
+
+    // the number of sums counted (1, the counts, without sampling)
+    public int sums() {
+        return sumCounts.length;
+    }
+
+    // the number of subgraphs found since the Enumerator was created (for
+    // progress reports, so it may lag when read by another thread)
+    public long getSubgraphs() {
+        return subgraphs;
+    }
+
+    // the number of distinct packed adjacencies (or motif ids) counted
+    public int getPatterns() {
+        if (table == null) {
+            return counts.size();
+        }
+        int patterns = 0;
+        for (long count:motifCounts) {
+            if (count != 0) {
+                patterns++;
+            }
+        }
+        return patterns;
+    }
+
+    // a sum (see Sampling.sums()) over the roots enumerated so far; sum 0
+    // is the subgraph counts, keyed by AdjacencyMatrix.toKey() (tagged with
+    // their order below the motif size, and only those with a MotifTable),
+    // the others are keyed by canonical key
+    public LongCountMap getCounts(int sum) {
+        return sumCounts[sum];
+    }
+
+    // a sum indexed by motif id, if a MotifTable is used
+    public long[] getMotifCounts(int sum) {
+        return sumMotifCounts[sum];
+    }
+
+    // true if roots may be enumerated branch by branch
+    public boolean splitsRoots() {
+        return squares == null || !squares.tracks(1);
+    }
+
+    // the number of branches of a root's ESU tree, one for each neighbour
+    // greater than the root
+    public int branches(int root) {
+        return graph.end(root) - graph.upperBound(root, root);
+    }
+
+    // enumerate all subgraphs for a given node index
+    public void enumerate(int root) {
+        if (probabilities != null && !sampleRoot(root)) {
+            return;
+        }
+        int length = setRoot(root);
+        extend(1, length);
+        if (squares != null && squares.tracks(1)) {
+            squares.leave(1);
+        }
+        subgraph.remove();
+    }
+
+    // enumerate the subgraphs of one branch of a root's ESU tree: those
+    // whose second node is the given branch's neighbour. Enumerating every
+    // branch in [0, branches(root)) is the same as enumerate(root), except
+    // when sampling roots with a probability below 1, whose sums of squares
+    // need the whole root (see splitsRoots()).
+    public void enumerateBranch(int root, int branch) {
+        if (!splitsRoots()) {
+            throw new IllegalStateException(
+                "Roots sampled with a probability below 1 cannot be split");
+        }
+        if (probabilities != null && !sampleRoot(root)) {
+            return;
+        }
+        int length = setRoot(root);
+        descend(1, length, branch);
+        subgraph.remove();
+    }
+
+    // starts the subgraph at a root, returning the extension's length
+    private int setRoot(int root) {
+        int first = graph.upperBound(root, root);
+        int length = graph.end(root) - first;
+        int[] extension = reserve(1, length);
+        System.arraycopy(neighbours, first, extension, 0, length);
+
+        // a new epoch unmarks every node
+        if (epoch == MAX_EPOCH) {
+            Arrays.fill(marks, 0);
+            epoch = 0;
+        }
+        epoch++;
+        subgraph.add(root, graph);
+        mark(root, first, 1);
+        return length;
+    }
+
+    // extend the subgraph (currently of the given size) recursively using
+    // the first 'length' nodes of that size's extension set
+    private void extend(int size, int length) {
+        int[] extension = extensions[size];
+
+        // the last node completes the subgraph, so record it instead of
+        // building another extension
+        if (size == subgraph.order() - 1) {
+            for (int i = 0; i < length; i++) {
+                if (probabilities != null && !sample(size, i)) {
+                    continue;
+                }
+                subgraph.add(extension[i], graph);
+                record(subgraph.getKey());
+                subgraph.remove();
+            }
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            descend(size, length, i);
+        }
+    }
+
+    // add the i-th node 'w' of the extension set to the subgraph and
+    // extend it
+    private void descend(int size, int length, int i) {
+        if (probabilities != null && !sample(size, i)) {
+            return;
+        }
+        int[] extension = extensions[size];
+        int w = extension[i];
+
+        if (size == subgraph.order() - 1) {
+            subgraph.add(w, graph);
+            record(subgraph.getKey());
+            subgraph.remove();
+            return;
+        }
+
+        // next extension contains the rest of the current extension...
+        int remaining = length - i - 1;
+        int[] next = reserve(size + 1, remaining + graph.degree(w));
+        System.arraycopy(extension, i + 1, next, 0, remaining);
+
+        // ...and each node 'u' adjacent to 'w' that is exclusive
+        int first = graph.upperBound(w, subgraph.root());
+        int nextLength = remaining;
+        int marked = epoch << DEPTH_BITS;
+        for (int j = first; j < graph.end(w); j++) {
+            int u = neighbours[j];
+            if (marks[u] < marked) {
+                next[nextLength++] = u;
+            }
+        }
+
+        subgraph.add(w, graph);
+        if (size + 1 >= minimumSize) {
+            subgraphs++;
+            counts.increment(
+                AdjacencyMatrix.withOrder(size + 1, subgraph.getKey()));
+            counted();
+        }
+        // the last extension is never extended, so needs no marks
+        if (size + 1 < subgraph.order() - 1) {
+            mark(w, first, size + 1);
+            extend(size + 1, nextLength);
+            unmark(w, first, size + 1);
+        } else {
+            extend(size + 1, nextLength);
+        }
+        if (squares != null && squares.tracks(size + 1)) {
+            squares.leave(size + 1);
+        }
+        subgraph.remove();
+    }
+
+    // decides whether a root is sampled
+    private boolean sampleRoot(int root) {
+        random = mix(seed ^ (root * 0x9E3779B97F4A7C15L));
+        return nextDouble() < probabilities[0];
+    }
+
+    // decides whether the i-th node of the extension set of the given size
+    // is added. The generator is reseeded for every branch of the root.
+    private boolean sample(int size, int i) {
+        if (size == 1) {
+            random = mix(seed ^ (subgraph.root() * 0x9E3779B97F4A7C15L) ^
+                         ((i + 1) * 0xC2B2AE3D27D4EB4FL));
+        }
+        double probability = probabilities[size];
+        return probability >= 1 || nextDouble() < probability;
+    }
+
+    // the next value in [0, 1) of a xorshift64* generator
+    private double nextDouble() {
+        random ^= random >>> 12;
+        random ^= random << 25;
+        random ^= random >>> 27;
+        return ((random * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+    // scrambles a seed (the finalizer of MurmurHash3), never returning 0
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE53A2A63L;
+        value ^= value >>> 33;
+        return value != 0 ? value : 1;
+    }
+
+    private void allocateSums(int sums) {
+        sumCounts = new LongCountMap[sums];
+        sumMotifCounts = new long[sums][];
+        for (int sum = 0; sum < sums; sum++) {
+            sumCounts[sum] = new LongCountMap();
+            if (table != null) {
+                sumMotifCounts[sum] = new long[table.size()];
+            }
+        }
+        counts = sumCounts[0];
+        motifCounts = sumMotifCounts[0];
+    }
+
+    private void record(long key) {
+        subgraphs++;
+        if (table != null) {
+            int id = table.getId(key);
+            motifCounts[id]++;
+            if (squares != null) {
+                squares.add(id);
+            }
+        } else {
+            counts.increment(key);
+            counted();
+            if (squares != null) {
+                squares.add(canonicalKey(key));
+            }
+        }
+    }
+
+    // the canonical key of a subgraph's packed key (never 0, as the
+    // subgraph has edges)
+    private long canonicalKey(long key) {
+        long canonical = canonicalKeys.get(key);
+        if (canonical == 0) {
+            canonical = labeler.canonicalKey(subgraph.order(), key);
+            canonicalKeys.add(key, canonical);
+        }
+        return canonical;
+    }
+
+    // spills the counts once they are full
+    private void counted() {
+        if (counts.size() >= spillSize) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                    "Unable to spill counts: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // marks a node added at the given depth and its neighbours from
+    // position 'first' on (those above the root), unless already marked
+    private void mark(int node, int first, int depth) {
+        int marked = epoch << DEPTH_BITS;
+        int stamp = marked | depth;
+        if (marks[node] < marked) {
+            marks[node] = stamp;
+        }
+        for (int j = first; j < graph.end(node); j++) {
+            if (marks[neighbours[j]] < marked) {
+                marks[neighbours[j]] = stamp;
+            }
+        }
+    }
+
+    // clears the marks mark() set for a node that is removed again
+    private void unmark(int node, int first, int depth) {
+        int stamp = (epoch << DEPTH_BITS) | depth;
+        if (marks[node] == stamp) {
+            marks[node] = 0;
+        }
+        for (int j = first; j < graph.end(node); j++) {
+            if (marks[neighbours[j]] == stamp) {
+                marks[neighbours[j]] = 0;
+            }
+        }
+    }
+
+    // make sure the extension buffer for a size can hold 'length' nodes
+    private int[] reserve(int size, int length) {
+        if (extensions[size].length < length) {
+            extensions[size] = Arrays.copyOf(extensions[size],
+                Math.max(length, extensions[size].length * 2));
+        }
+        return extensions[size];
+    }
+}
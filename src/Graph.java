@@ -1,158 +1,184 @@
 // Graph.java
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Random;
+
+// Undirected graph stored in compressed sparse row (CSR) form: the
+// neighbours of node v are neighbours[offsets[v]] .. neighbours[offsets[v+1]-1]
+// in ascending order. The arrays are built once when parsing and are never
+// modified afterwards, so a single instance can be shared by all threads.
+public class Graph {
+
+    // nodes with at least this many neighbours also get a bitmap row, so
+    // adjacency tests against hubs are a single bit lookup
+    private static final int MIN_HUB_DEGREE = 64;
+
+    private int[] offsets;
+    private int[] neighbours;
+    private int[] hubIndex;     // row in hubBits for a node, or -1
+    private long[][] hubBits;
+
+    // node names from the data file, or null if they are not known. Only
+    // needed where the graph was parsed, so they are not sent to other ranks.
+    private String[] names;
+
+    // parses a data file (see EdgeListParser) with one thread, numbering
+    // the nodes in random order
+    public Graph(String filename) throws IOException {
+        this(filename, 1, new Random());
+    }
 
-public class Graph implements java.io.Serializable {
-        private List<AdjacencyList> adjacencyLists;
+    // parses a data file with 'nThreads' threads. 'random' shuffles the
+    // node indexes; if it is null the nodes are numbered in order of first
+    // appearance in the file.
+    public Graph(String filename, int nThreads, Random random)
+        throws IOException {
+        EdgeListParser parser = new EdgeListParser(filename, nThreads,
+                                                   random);
+        parser.parse();
+        offsets = parser.getOffsets();
+        neighbours = parser.getNeighbours();
+        names = parser.getNames();
+        buildHubs();
+    }
 
-    public Graph(String filename) throws IOException {
-        adjacencyLists = new ArrayList<AdjacencyList>();
-        parse(filename);
+    // builds a graph from CSR arrays, which must hold every edge in both
+    // directions with each node's neighbours sorted (the arrays are used,
+    // not copied)
+    public Graph(int[] offsets, int[] neighbours) {
+        this(offsets, neighbours, null);
+    }
+
+    // as above, with the name of each node (may be null)
+    public Graph(int[] offsets, int[] neighbours, String[] names) {
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.names = names;
+        buildHubs();
     }
 
     // get the number of nodes in the graph
     public int size() {
-        return adjacencyLists.size();
+        return offsets.length - 1;
     }
 
-    // get the adjacency list for a given node
-    public AdjacencyList getAdjacencyList(Integer index) {
-        return adjacencyLists.get(index);
+    // get the number of neighbours of a given node
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
     }
 
-    // enumerate all subgraphs for a given node index
-    public void enumerate(int index, int motifSize,
-                          Map<String, Integer> subgraphs) {
-        Subgraph subgraph = new Subgraph(motifSize);
-        AdjacencyList adjacencyList = new AdjacencyList();
-        CompactHashSet.Iter iter = getAdjacencyList(index).iterator();
-        while (iter.hasNext()) {
-            int next = iter.next();
-            if (next > index) {
-                adjacencyList.add(next);
-            }
-        }
-        subgraph.add(index, getAdjacencyList(index));
-        extend(subgraph, adjacencyList, subgraphs);
+    // index of the first neighbour of a node in getNeighbours()
+    public int start(int node) {
+        return offsets[node];
     }
 
-    // extend the subgraphs recursively
-    private void extend(Subgraph subgraph, AdjacencyList extension,
-                        Map<String, Integer> subgraphs) {
-        int v = subgraph.root();
-        CompactHashSet.Iter wIter = extension.iterator();
-
-        // optimize by not creating next extension if subgraph is
-        // 1 node away from completion
-        if (subgraph.size() == subgraph.order() - 1) {
-            while (wIter.hasNext()) {
-                int w = wIter.next();
-
-                // construct a union of w and the existing subgraph
-                Subgraph subgraphUnion = subgraph.copy();
-                subgraphUnion.add(w, getAdjacencyList(w));
-
-                // store in the subgraphs map using the subgraph byte string
-                String repr = subgraphUnion.getByteString();
-                int count = 1;
-                synchronized(subgraphs) {
-                    if (subgraphs.containsKey(repr)) {
-                        count += subgraphs.get(repr);
-                    }
-                    subgraphs.put(repr, count);
-                }
-            }
-        }
+    // index one past the last neighbour of a node in getNeighbours()
+    public int end(int node) {
+        return offsets[node + 1];
+    }
 
-        while (wIter.hasNext()) {
-            int w = wIter.next();
-            wIter.remove();
-
-            // next extension contains at least the current extension
-            AdjacencyList nextExtension = extension.copy();
-
-            // examine each node 'u' from the set of nodes adjacent to 'w'
-            // and add it to the next extension if it is exclusive
-            CompactHashSet.Iter uIter = getAdjacencyList(w).iterator();
-            while (uIter.hasNext()) {
-                int u = uIter.next();
-                if (u > v) {
-                    if (isExclusive(u, subgraph)) {
-                        nextExtension.add(u);
-                    }
-                }
-            }
+    // the shared, sorted neighbour array (must not be modified)
+    public int[] getNeighbours() {
+        return neighbours;
+    }
 
-            // construct a union of w and the existing subgraph
-            Subgraph subgraphUnion = subgraph.copy();
-            subgraphUnion.add(w, getAdjacencyList(w));
+    // the shared offsets array: node v's neighbours start at offsets[v]
+    // (must not be modified)
+    public int[] getOffsets() {
+        return offsets;
+    }
 
-            extend(subgraphUnion, nextExtension, subgraphs);
-        }
+    // the name of each node in the data file, or null if not known
+    public String[] getNames() {
+        return names;
     }
 
-    // returns true if the node index is exclusive to the given subgraph
-    // (that is, is not already in the subgraph, and is not adjacent to any of
-    //  the nodes in the subgraph)
-    private boolean isExclusive(int node, Subgraph subgraph) {
-        if (subgraph.contains(node)) {
-            return false;
+    // returns true if there is an edge between the given nodes
+    public boolean hasEdge(int x, int y) {
+        if (hubIndex[x] >= 0) {
+            return (hubBits[hubIndex[x]][y >>> 6] & (1L << y)) != 0;
         }
-        for (int i = 0; i < subgraph.size(); i++) {
-            int subgraphNode = subgraph.get(i);
-            if (getAdjacencyList(subgraphNode).contains(node)) {
-                return false;
-            }
+        if (hubIndex[y] >= 0) {
+            return (hubBits[hubIndex[y]][x >>> 6] & (1L << x)) != 0;
         }
-        return true;
+        if (degree(x) > degree(y)) {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        return Arrays.binarySearch(neighbours, offsets[x], offsets[x + 1], y)
+               >= 0;
     }
 
-    // parses a data file into an adjacency list representing the graph
-    private void parse(String filename) throws IOException {
-        Map<String, Integer> nameToIndex = new HashMap<String, Integer>();
+    // returns a copy of this graph in which node i is renamed newIds[i]
+    // ('newIds' must be a permutation of the node indexes)
+    public Graph relabel(int[] newIds) {
+        int nodes = size();
+        int[] newOffsets = new int[nodes + 1];
+        for (int i = 0; i < nodes; i++) {
+            newOffsets[newIds[i] + 1] = degree(i);
+        }
+        for (int i = 0; i < nodes; i++) {
+            newOffsets[i + 1] += newOffsets[i];
+        }
 
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
-        List<String> lines = new ArrayList<String>();
-        String currentLine = reader.readLine();
-        while (currentLine != null) {
-            lines.add(currentLine);
-            currentLine = reader.readLine();
+        int[] newNeighbours = new int[neighbours.length];
+        for (int i = 0; i < nodes; i++) {
+            int index = newOffsets[newIds[i]];
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                newNeighbours[index++] = newIds[neighbours[j]];
+            }
+            Arrays.sort(newNeighbours, newOffsets[newIds[i]], index);
         }
-        reader.close();
-
-        // avoid clustering (data collection bias) by randomly parsing the
-        // input lines of data
-        Collections.shuffle(lines);
-
-        String delimiters = "\\s+"; // one or more whitespace characters
-        for (String line:lines) {
-            String[] edge = line.split(delimiters);
-            int fromIndex = getOrCreateIndex(edge[0], nameToIndex);
-            int toIndex   = getOrCreateIndex(edge[1], nameToIndex);
-
-            // don't add self edges
-            if (fromIndex != toIndex) {
-                getAdjacencyList(fromIndex).add(toIndex);
-                getAdjacencyList(toIndex).add(fromIndex);
+
+        String[] newNames = null;
+        if (names != null) {
+            newNames = new String[nodes];
+            for (int i = 0; i < nodes; i++) {
+                newNames[newIds[i]] = names[i];
             }
         }
+        return new Graph(newOffsets, newNeighbours, newNames);
     }
 
-    // get index of a node given the node's name
-    // create an entry if it does not exist
-    private Integer getOrCreateIndex(String nodeName,
-                                     Map<String, Integer> nameToIndex) {
-        if (!nameToIndex.containsKey(nodeName)) {
-            nameToIndex.put(nodeName, adjacencyLists.size());
-            adjacencyLists.add(new AdjacencyList());
+    // index of the first neighbour of 'node' that is greater than 'bound'
+    public int upperBound(int node, int bound) {
+        int low = offsets[node];
+        int high = offsets[node + 1];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (neighbours[mid] <= bound) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // builds the bitmap rows for high degree nodes. The threshold keeps the
+    // bitmaps no larger in total than the neighbour array itself.
+    private void buildHubs() {
+        int nodes = size();
+        int threshold = Math.max(MIN_HUB_DEGREE, nodes / 32);
+        int words = (nodes + 63) >>> 6;
+
+        hubIndex = new int[nodes];
+        int hubs = 0;
+        for (int i = 0; i < nodes; i++) {
+            hubIndex[i] = degree(i) >= threshold ? hubs++ : -1;
+        }
+
+        hubBits = new long[hubs][];
+        for (int i = 0; i < nodes; i++) {
+            if (hubIndex[i] >= 0) {
+                long[] row = new long[words];
+                for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                    row[neighbours[j] >>> 6] |= 1L << neighbours[j];
+                }
+                hubBits[hubIndex[i]] = row;
+            }
         }
-        return nameToIndex.get(nodeName);
     }
 }
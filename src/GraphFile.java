@@ -0,0 +1,334 @@
+// GraphFile.java
+//
+// Compact binary form of a parsed graph, so large networks are parsed once
+// and then loaded by every rank straight from the file instead of being
+// parsed on the master and broadcast. All values are little endian:
+//
+//   header      magic "MNG1", version, nodes, flags (int each), then the
+//               number of neighbour entries and the size of the name table
+//               in bytes (long each)
+//   offsets     nodes + 1 ints (the CSR offsets, see Graph)
+//   neighbours  one int per entry, sorted per node
+//   names       optional (flag NAMES): for each node its name as a length
+//               (int) followed by that many UTF-8 bytes
+//
+// The file is memory-mapped in segments of at most MAP_SEGMENT bytes, so
+// graphs larger than one mapping can be read, and copied with bulk int
+// transfers directly into the arrays Graph uses.
+//
+// Usage as a converter:
+//   java GraphFile data_file output_file [--order=NAME]
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+public class GraphFile {
+
+    public static final int NAMES = 1;  // flag: the file has a name table
+
+    private static final int MAGIC = 0x31474e4d;  // "MNG1" little endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAP_SEGMENT = 1 << 30;
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    // returns true if the file starts with the magic number of this format
+    public static boolean isGraphFile(String filename) {
+        try {
+            DataInputStream in =
+                new DataInputStream(new FileInputStream(filename));
+            try {
+                return Integer.reverseBytes(in.readInt()) == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // writes a graph, with its node names if it has them
+    public static void write(Graph graph, String filename)
+        throws IOException {
+        int nodes = graph.size();
+        int[] offsets = graph.getOffsets();
+        int[] neighbours = graph.getNeighbours();
+        String[] names = graph.getNames();
+
+        byte[][] encoded = null;
+        long namesSize = 0;
+        if (names != null) {
+            encoded = new byte[nodes][];
+            for (int i = 0; i < nodes; i++) {
+                encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+                namesSize += 4 + encoded[i].length;
+            }
+        }
+
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER)
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(nodes);
+            buffer.putInt(names != null ? NAMES : 0);
+            buffer.putLong(neighbours.length);
+            buffer.putLong(namesSize);
+
+            writeInts(channel, buffer, offsets);
+            writeInts(channel, buffer, neighbours);
+            if (encoded != null) {
+                for (int i = 0; i < nodes; i++) {
+                    if (buffer.remaining() < 4) {
+                        drain(channel, buffer);
+                    }
+                    buffer.putInt(encoded[i].length);
+                    int written = 0;
+                    while (written < encoded[i].length) {
+                        if (!buffer.hasRemaining()) {
+                            drain(channel, buffer);
+                        }
+                        int length = Math.min(buffer.remaining(),
+                                              encoded[i].length - written);
+                        buffer.put(encoded[i], written, length);
+                        written += length;
+                    }
+                }
+            }
+            drain(channel, buffer);
+        } finally {
+            file.close();
+        }
+    }
+
+    // reads a graph without its node names
+    public static Graph read(String filename) throws IOException {
+        return read(filename, false);
+    }
+
+    // reads a graph, with its node names if 'withNames' is set and the file
+    // has them
+    public static Graph read(String filename, boolean withNames)
+        throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException(filename + " is not a graph file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                                            0, HEADER_SIZE)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+            int magic = header.getInt();
+            int version = header.getInt();
+            int nodes = header.getInt();
+            int flags = header.getInt();
+            long entries = header.getLong();
+            long namesSize = header.getLong();
+            if (magic != MAGIC) {
+                throw new IOException(filename + " is not a graph file");
+            }
+            if (version != VERSION) {
+                throw new IOException(filename + " has unsupported version " +
+                    version);
+            }
+            long namesStart = HEADER_SIZE + 4L * (nodes + 1) + 4L * entries;
+            if (nodes < 0 || entries < 0 || entries > Integer.MAX_VALUE ||
+                namesSize < 0 || namesStart + namesSize != length) {
+                throw new IOException(filename + " is truncated or corrupt");
+            }
+
+            int[] offsets = new int[nodes + 1];
+            int[] neighbours = new int[(int)entries];
+            readInts(channel, HEADER_SIZE, offsets);
+            readInts(channel, HEADER_SIZE + 4L * (nodes + 1), neighbours);
+            if (offsets[0] != 0 || offsets[nodes] != entries) {
+                throw new IOException(filename + " is truncated or corrupt");
+            }
+            checkAdjacency(filename, offsets, neighbours);
+
+            String[] names = null;
+            if (withNames && (flags & NAMES) != 0) {
+                names = readNames(filename, channel, namesStart, namesSize,
+                                  nodes);
+            }
+            return new Graph(offsets, neighbours, names);
+        } finally {
+            file.close();
+        }
+    }
+
+    // converts a data file to the binary form, optionally reordering it
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 ||
+            (args.length == 3 && !args[2].startsWith("--order="))) {
+            System.out.println(
+                "usage: GraphFile data_file output_file [--order=NAME]");
+            System.exit(1);
+        }
+
+        long start = System.currentTimeMillis();
+        Graph graph = new Graph(args[0],
+            Runtime.getRuntime().availableProcessors(), new Random());
+        if (args.length == 3) {
+            String order = args[2].substring("--order=".length());
+            if (!VertexOrder.isValid(order)) {
+                System.out.println("unknown node order '" + order + "'");
+                System.exit(1);
+            }
+            graph = VertexOrder.apply(graph, order);
+        }
+        write(graph, args[1]);
+        System.out.println(
+            (System.currentTimeMillis() - start) + " milliseconds to " +
+            "convert a network of size " + graph.size() + " with " +
+            (graph.getNeighbours().length / 2) + " edges");
+    }
+
+    // appends an int array to the buffer, writing it out whenever it fills
+    private static void writeInts(FileChannel channel, ByteBuffer buffer,
+                                  int[] values) throws IOException {
+        int written = 0;
+        while (written < values.length) {
+            if (buffer.remaining() < 4) {
+                drain(channel, buffer);
+            }
+            IntBuffer ints = buffer.asIntBuffer();
+            int length = Math.min(ints.remaining(), values.length - written);
+            ints.put(values, written, length);
+            buffer.position(buffer.position() + 4 * length);
+            written += length;
+        }
+    }
+
+    // writes out and clears the buffer
+    private static void drain(FileChannel channel, ByteBuffer buffer)
+        throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // fills 'values' from the file, starting at byte 'position'
+    private static void readInts(FileChannel channel, long position,
+                                 int[] values) throws IOException {
+        int read = 0;
+        while (read < values.length) {
+            int length = Math.min(MAP_SEGMENT / 4, values.length - read);
+            MappedByteBuffer segment = channel.map(
+                FileChannel.MapMode.READ_ONLY, position, 4L * length);
+            segment.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+                   .get(values, read, length);
+            position += 4L * length;
+            read += length;
+        }
+    }
+
+    // checks that the offsets never decrease (so, as the first and last
+    // are checked, they are all within the neighbours), that the
+    // neighbours of each node are other nodes in strictly increasing order,
+    // and that every edge is listed by both of its nodes, so a corrupt file
+    // fails here rather than with wrong counts or an index out of bounds
+    private static void checkAdjacency(String filename, int[] offsets,
+                                       int[] neighbours) throws IOException {
+        int nodes = offsets.length - 1;
+        for (int i = 0; i < nodes; i++) {
+            if (offsets[i + 1] < offsets[i]) {
+                throw new IOException(filename + " is corrupt: the " +
+                    "offsets decrease at node " + i);
+            }
+        }
+        for (int i = 0; i < nodes; i++) {
+            int previous = -1;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                int neighbour = neighbours[j];
+                if (neighbour < 0 || neighbour >= nodes) {
+                    throw new IOException(filename + " is corrupt: node " +
+                        i + " has neighbour " + neighbour + " outside [0, " +
+                        nodes + ")");
+                }
+                if (neighbour == i) {
+                    throw new IOException(filename + " is corrupt: node " +
+                        i + " is its own neighbour");
+                }
+                if (neighbour <= previous) {
+                    throw new IOException(filename + " is corrupt: the " +
+                        "neighbours of node " + i + " are not strictly " +
+                        "increasing");
+                }
+                previous = neighbour;
+            }
+        }
+        for (int i = 0; i < nodes; i++) {
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                int neighbour = neighbours[j];
+                if (Arrays.binarySearch(neighbours, offsets[neighbour],
+                                        offsets[neighbour + 1], i) < 0) {
+                    throw new IOException(filename + " is corrupt: node " +
+                        i + " lists neighbour " + neighbour + ", which " +
+                        "does not list it");
+                }
+            }
+        }
+    }
+
+    // decodes the name table
+    private static String[] readNames(String filename, FileChannel channel,
+                                      long position, long size, int nodes)
+        throws IOException {
+        String[] names = new String[nodes];
+        long end = position + size;
+        MappedByteBuffer segment = null;
+        long segmentStart = position;
+        for (int i = 0; i < nodes; i++) {
+            // remap when the next length field is not in the segment
+            if (segment == null || position + 4 > segmentStart +
+                                                  segment.capacity()) {
+                segment = mapFrom(channel, position, end);
+                segmentStart = position;
+            }
+            int length = segment.getInt((int)(position - segmentStart));
+            if (length < 0 || position + 4 + length > end) {
+                throw new IOException(filename + " is corrupt: its name " +
+                    "table is invalid");
+            }
+            if (position + 4 + length > segmentStart + segment.capacity()) {
+                segment = mapFrom(channel, position, end);
+                segmentStart = position;
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer view = segment.duplicate();
+            view.position((int)(position + 4 - segmentStart));
+            view.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        return names;
+    }
+
+    // maps up to MAP_SEGMENT bytes of the file starting at 'position'
+    private static MappedByteBuffer mapFrom(FileChannel channel,
+                                            long position, long end)
+        throws IOException {
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+            position, Math.min(MAP_SEGMENT, end - position));
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        return segment;
+    }
+}
@@ -0,0 +1,221 @@
+// LabelCache.java
+//
+// Persistent cache from a raw subgraph (order and packed adjacency, see
+// AdjacencyMatrix.toKey()) to its canonical packed adjacency, shared by
+// runs and by all ranks through a memory-mapped file.
+//
+// The file holds a fixed number of 24 byte slots (key, canonical key and a
+// check word) in an open-addressing table. Lookups never lock: a slot whose
+// check word does not match its contents (for example one that another
+// process is writing) is treated as a miss. New entries are only written to
+// empty slots within a short probe window; when the window is full, one of
+// its slots is overwritten, which bounds the file size. Writers hold an
+// exclusive lock on the file, so ranks sharing it never write concurrently.
+// File locks belong to the whole JVM, so caches of ranks in the same
+// process (see SharedMemoryCommunicator) also take PROCESS_LOCK first.
+//
+// Canonical forms differ between labeling programs, so the file records the
+// labeler that produced it and is not used with a different one.
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LabelCache {
+
+    public static final int LABELER_BUILT_IN = 0;
+    public static final int LABELER_LABELG = 1;
+
+    public static final int DEFAULT_CAPACITY = 1 << 22;
+
+    private static final int MAGIC = 0x4c434831;  // "LCH1"
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 24;
+    private static final int PROBE_LIMIT = 8;
+    private static final long CHECK_SALT = 0x5bd1e9955bd1e995L;
+    private static final Object PROCESS_LOCK = new Object();
+
+    // header layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int LABELER_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int mask;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private long evictions;
+
+    // opens (or creates) the cache file. 'capacity' is rounded up to a power
+    // of two and only used when the file is created.
+    public LabelCache(String filename, int labeler, int capacity)
+        throws IOException {
+        int slots = Integer.highestOneBit(Math.max(capacity, PROBE_LIMIT));
+        if (slots < capacity) {
+            slots *= 2;
+        }
+        if ((long)slots * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                "Argument out of range (capacity too large).");
+        }
+
+        file = new RandomAccessFile(new File(filename), "rw");
+        channel = file.getChannel();
+        synchronized (PROCESS_LOCK) {
+            slots = open(filename, labeler, slots);
+        }
+
+        mask = slots - 1;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                             HEADER_SIZE + (long)slots * SLOT_SIZE);
+    }
+
+    // writes the header of a new file, or checks that of an existing one,
+    // returning the file's number of slots
+    private int open(String filename, int labeler, int slots)
+        throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            if (file.length() < HEADER_SIZE) {
+                // a new file: write the header
+                file.setLength(HEADER_SIZE + (long)slots * SLOT_SIZE);
+                file.seek(MAGIC_OFFSET);
+                file.writeInt(MAGIC);
+                file.seek(LABELER_OFFSET);
+                file.writeInt(labeler);
+                file.seek(CAPACITY_OFFSET);
+                file.writeInt(slots);
+            } else {
+                file.seek(MAGIC_OFFSET);
+                int magic = file.readInt();
+                file.seek(LABELER_OFFSET);
+                int fileLabeler = file.readInt();
+                file.seek(CAPACITY_OFFSET);
+                slots = file.readInt();
+                if (magic != MAGIC || Integer.bitCount(slots) != 1 ||
+                    file.length() != HEADER_SIZE + (long)slots * SLOT_SIZE) {
+                    throw new IOException(filename +
+                        " is not a label cache file");
+                }
+                if (fileLabeler != labeler) {
+                    throw new IOException(filename +
+                        " was created by a different labeler");
+                }
+            }
+        } finally {
+            lock.release();
+        }
+        return slots;
+    }
+
+    // returns the canonical key of a raw key, or -1 if it is not cached
+    public long get(int order, long key) {
+        long tagged = tag(order, key);
+        int slot = slotFor(tagged);
+        for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+            int offset = offsetOf((slot + probe) & mask);
+            long stored = buffer.getLong(offset);
+            if (stored == 0L) {
+                break;
+            }
+            if (stored == tagged) {
+                long value = buffer.getLong(offset + 8);
+                if (buffer.getLong(offset + 16) == check(stored, value)) {
+                    hits.incrementAndGet();
+                    return value;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return -1L;
+    }
+
+    // adds the canonical keys of newly labeled raw keys
+    public synchronized void putAll(int order, long[] keys, long[] canonical,
+                                    int length) throws IOException {
+        synchronized (PROCESS_LOCK) {
+            FileLock lock = channel.lock();
+            try {
+                for (int i = 0; i < length; i++) {
+                    put(tag(order, keys[i]), canonical[i]);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void put(long tagged, long value) {
+        int slot = slotFor(tagged);
+        int target = -1;
+        for (int probe = 0; probe < PROBE_LIMIT; probe++) {
+            int index = (slot + probe) & mask;
+            long stored = buffer.getLong(offsetOf(index));
+            if (stored == tagged) {
+                return;
+            }
+            if (stored == 0L) {
+                target = index;
+                break;
+            }
+        }
+
+        if (target < 0) {
+            // the window is full: evict the entry the key selects
+            target = (slot + (int)((tagged >>> 17) % PROBE_LIMIT)) & mask;
+            evictions++;
+        }
+
+        // invalidate the slot first, so readers never accept a mix of the
+        // old and new entry
+        int offset = offsetOf(target);
+        buffer.putLong(offset + 16, 0L);
+        buffer.putLong(offset, tagged);
+        buffer.putLong(offset + 8, value);
+        buffer.putLong(offset + 16, check(tagged, value));
+    }
+
+    // flushes the new entries to disk and releases the file
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+        file.close();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // the order is stored above the 55 adjacency bits, which also keeps
+    // every stored key non-zero
+    private static long tag(int order, long key) {
+        return ((long)order << 56) | key;
+    }
+
+    private static long check(long key, long value) {
+        return (key ^ (value * 31)) ^ CHECK_SALT;
+    }
+
+    private int slotFor(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -1,143 +1,298 @@
 // Labeler.java
+//
+// Sums subgraph counts by canonical label. Subgraphs are labeled either by
+// the built-in CanonicalLabeler, running on several threads, or by a pool
+// of labelg processes. An optional LabelCache in front of either one skips
+// subgraphs that were already labeled in an earlier run. Counts spilled to
+// disk (see CountRuns) are labeled in batches as they are merged.
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
-import mpi.*;
-
 public class Labeler {
 
-    // labelg program options
-    private static final String programName = "./labelg";
-    private static final int invariant = 3;
-    private static final int mininvarlevel = 1;
-    private static final int maxinvarlevel = 100;
+    // labels the keys in [from, to) with its own CanonicalLabeler
+    private static class LabelThread extends Thread {
+
+        private int order;
+        private long[] keys;
+        private long[] canonical;
+        private int from;
+        private int to;
+
+        public LabelThread(int order, long[] keys, long[] canonical,
+                           int from, int to) {
+            this.order = order;
+            this.keys = keys;
+            this.canonical = canonical;
+            this.from = from;
+            this.to = to;
+        }
 
-    // file options
-    private static final String filePrefix  = ".";
-    private static final String filePostfix = ".g6";
+        public void run() {
+            CanonicalLabeler labeler = new CanonicalLabeler();
+            for (int i = from; i < to; i++) {
+                canonical[i] = labeler.canonicalKey(order, keys[i]);
+            }
+        }
+    }
 
     // data members
-    private String inputFilename;
-    private String outputFilename;
-    private String[] args;
-
-    public Labeler() throws MPIException {
-        long currentTime = System.currentTimeMillis();
-        int rank = MPI.COMM_WORLD.Rank();
-        this.inputFilename = filePrefix + "rawgraph6_" + rank + "_" +
-                             currentTime + filePostfix;
-        this.outputFilename = filePrefix + "canonical_" + rank + "_" +
-                              currentTime + filePostfix;
-        this.args = getArgs();
-    }
-
-    private String[] getArgs() {
-        String[] args = {
-            programName,
-            "-i" + invariant,
-            "-I" + mininvarlevel + ":" + maxinvarlevel,
-            inputFilename,
-            outputFilename};
-        return args;
-    }
-
-    public Map<String, Integer> getCanonicalLabels(
-        Map<String, Integer> subgraphs) {
-        // Get canonical labels using the labelg program.
-        // This function communicates with labelg using input and output files.
-        //
-        // code adapted from Vartika Verma's Nemo Finder project (UWB 2014)
-
-        BufferedWriter writer = null;
-        BufferedReader inputReader = null;
-        BufferedReader outputReader = null;
-        Map<String, Integer> labels = new HashMap<String, Integer>();
-        int returnCode = 0;
+    private boolean useLabelg;
+    private int nThreads;
+    private LabelCache cache;
+
+    // totals over all calls, for progress reports (see Metrics)
+    private volatile long batches;
+    private volatile long keysSeen;
+    private volatile long keysLabeled;
+    private volatile long labelNanos;
+
+    // useLabelg selects the external labelg program, run as a pool of one
+    // process per core, instead of the built-in CanonicalLabeler, which
+    // runs on nThreads threads
+    public Labeler(boolean useLabelg, int nThreads) {
+        this(useLabelg, nThreads, null);
+    }
+
+    // as above, looking up and storing canonical labels in 'cache' (which
+    // may be null)
+    public Labeler(boolean useLabelg, int nThreads, LabelCache cache) {
+        this.useLabelg = useLabelg;
+        this.nThreads = nThreads;
+        this.cache = cache;
+    }
+
+    // Get canonical labels for subgraphs counted by their packed adjacency
+    // (see AdjacencyMatrix.toKey()). Each distinct key is converted to its
+    // graph6 string at most once here.
+    // Smaller subgraphs counted along with them carry their own order (see
+    // AdjacencyMatrix.withOrder()) and are labeled as graphs of that order.
+    public Map<String, Long> getCanonicalLabels(LongCountMap subgraphs,
+                                                int order)
+        throws IOException {
+        Map<Integer, LongCountMap> canonical =
+            new HashMap<Integer, LongCountMap>();
+        labelByOrder(byOrder(subgraphs, order), canonical);
+        return toGraph6(canonical);
+    }
+
+    // As above, for counts streamed in key order from runs on disk (see
+    // CountRuns), which are labeled in batches of 'batchSize' keys so they
+    // never need to be in memory at once. Closes the stream.
+    public Map<String, Long> getCanonicalLabels(CountRuns.Merge subgraphs,
+                                                int order, int batchSize)
+        throws IOException {
+        Map<Integer, LongCountMap> canonical =
+            new HashMap<Integer, LongCountMap>();
+        LongCountMap batch = new LongCountMap(batchSize);
         try {
-            writer = new BufferedWriter(new FileWriter(inputFilename));
-            for (String graph:subgraphs.keySet()) {
-                writer.write(graph);
-                writer.write('\n');
-            }
-            writer.close();
-
-            Process labelg = Runtime.getRuntime().exec(args);
-
-            // close output stream, input stream & error stream
-            labelg.getOutputStream().close();
-            closeInputStream(labelg.getInputStream());
-            closeInputStream(labelg.getErrorStream());
-
-            // wait for labelg to complete execution
-            returnCode = labelg.waitFor();
-
-            // read back in the input and output file
-            inputReader = new BufferedReader(new FileReader(inputFilename));
-            outputReader = new BufferedReader(new FileReader(outputFilename));
-            String inputLine = inputReader.readLine();
-            String outputLine = outputReader.readLine();
-
-            // combine the input and output, assuming labelg writes output
-            // in the same order as the input is provided
-            while (outputLine != null) {
-                int count = subgraphs.get(inputLine);
-                if (labels.containsKey(outputLine)) {
-                    count += labels.get(outputLine);
+            while (subgraphs.hasNext()) {
+                long key = subgraphs.next();
+                batch.add(key, subgraphs.count());
+                if (batch.size() == batchSize || !subgraphs.hasNext()) {
+                    labelByOrder(byOrder(batch, order), canonical);
+                    batch.clear();
                 }
-                labels.put(outputLine, count);
-                inputLine = inputReader.readLine();
-                outputLine = outputReader.readLine();
             }
-            inputReader.close();
-            outputReader.close();
-        } catch (Exception e) {
-            System.err.println("Exception " + e + " raised");
-            e.printStackTrace();
-            labels = null;
         } finally {
-            try { writer.close(); } catch (Exception e) {}
-            try { inputReader.close(); } catch (Exception e) {}
-            try { outputReader.close(); } catch (Exception e) {}
-            deleteFile(inputFilename);
-            deleteFile(outputFilename);
+            subgraphs.close();
+        }
+        return toGraph6(canonical);
+    }
+
+    // Get canonical labels for subgraphs counted by their graph6 string.
+    public Map<String, Long> getCanonicalLabels(
+        Map<String, Long> subgraphs) throws IOException {
+        // labeling works on packed keys, one order at a time
+        Map<Integer, LongCountMap> byOrder =
+            new HashMap<Integer, LongCountMap>();
+        for (Map.Entry<String, Long> entry:subgraphs.entrySet()) {
+            AdjacencyMatrix matrix = AdjacencyMatrix.fromBytes(
+                entry.getKey().getBytes(StandardCharsets.UTF_8));
+            if (!byOrder.containsKey(matrix.order())) {
+                byOrder.put(matrix.order(), new LongCountMap());
+            }
+            byOrder.get(matrix.order()).add(matrix.toKey(), entry.getValue());
+        }
+        Map<Integer, LongCountMap> canonical =
+            new HashMap<Integer, LongCountMap>();
+        labelByOrder(byOrder, canonical);
+        return toGraph6(canonical);
+    }
+
+    // splits packed keys of the given order, some of them possibly tagged
+    // with a smaller one, by their order, without copying them if none is
+    private static Map<Integer, LongCountMap> byOrder(LongCountMap subgraphs,
+                                                      int order) {
+        Map<Integer, LongCountMap> byOrder =
+            new HashMap<Integer, LongCountMap>();
+        boolean tagged = false;
+        LongCountMap.Iter iter = subgraphs.iterator();
+        while (iter.hasNext() && !tagged) {
+            tagged = AdjacencyMatrix.orderOf(iter.next(), order) != order;
+        }
+        if (!tagged) {
+            byOrder.put(order, subgraphs);
+            return byOrder;
         }
 
-        if (labels == null) {
-            System.exit(-1);
+        iter = subgraphs.iterator();
+        while (iter.hasNext()) {
+            long key = iter.next();
+            int keyOrder = AdjacencyMatrix.orderOf(key, order);
+            if (!byOrder.containsKey(keyOrder)) {
+                byOrder.put(keyOrder, new LongCountMap());
+            }
+            byOrder.get(keyOrder).add(AdjacencyMatrix.withoutOrder(key),
+                                      iter.count());
         }
+        return byOrder;
+    }
 
-        if (returnCode != 0) {
-            System.err.println("`labelg` exited with a return code of: " +
-                returnCode);
-            System.err.print("`labelg` executed with: ");
-            for (String line:args) {
-                System.err.print(line + " ");
+    // labels packed keys grouped by order, adding the counts of their
+    // canonical keys to those of the same order in 'canonical'
+    private void labelByOrder(Map<Integer, LongCountMap> byOrder,
+                              Map<Integer, LongCountMap> canonical)
+        throws IOException {
+        for (Map.Entry<Integer, LongCountMap> entry:byOrder.entrySet()) {
+            int order = entry.getKey();
+            LongCountMap labeled = labelKeys(entry.getValue(), order);
+            if (canonical.containsKey(order)) {
+                canonical.get(order).addAll(labeled);
+            } else {
+                canonical.put(order, labeled);
             }
-            System.err.println();
-            System.exit(-1);
+        }
+    }
+
+    // sums the counts of the given packed keys by their canonical key
+    private LongCountMap labelKeys(LongCountMap subgraphs, int order)
+        throws IOException {
+        long start = System.nanoTime();
+        int size = subgraphs.size();
+        long[] keys = new long[size];
+        long[] counts = new long[size];
+        LongCountMap.Iter iter = subgraphs.iterator();
+        for (int i = 0; iter.hasNext(); i++) {
+            keys[i] = iter.next();
+            counts[i] = iter.count();
         }
 
+        // look up the cached labels, and label the rest
+        long[] canonical = new long[size];
+        int[] missing = new int[size];
+        int misses = 0;
+        for (int i = 0; i < size; i++) {
+            canonical[i] = cache == null ? -1L : cache.get(order, keys[i]);
+            if (canonical[i] < 0) {
+                missing[misses++] = i;
+            }
+        }
+
+        if (misses > 0) {
+            long[] missingKeys = new long[misses];
+            for (int i = 0; i < misses; i++) {
+                missingKeys[i] = keys[missing[i]];
+            }
+            long[] labeled = useLabelg ? runLabelg(order, missingKeys)
+                                       : runLabeler(order, missingKeys);
+            for (int i = 0; i < misses; i++) {
+                canonical[missing[i]] = labeled[i];
+            }
+            if (cache != null) {
+                cache.putAll(order, missingKeys, labeled, misses);
+            }
+        }
+
+        LongCountMap labels = new LongCountMap();
+        for (int i = 0; i < size; i++) {
+            labels.add(canonical[i], counts[i]);
+        }
+
+        batches++;
+        keysSeen += size;
+        keysLabeled += misses;
+        labelNanos += System.nanoTime() - start;
         return labels;
     }
 
-    private void closeInputStream(InputStream stream) throws IOException {
-        BufferedReader r = new BufferedReader(new InputStreamReader(stream));
-        String l = r.readLine();
-        while (l != null) {
-            l = r.readLine();
+    // the number of batches of keys labeled so far
+    public long getBatches() {
+        return batches;
+    }
+
+    // the number of distinct keys in all batches
+    public long getKeysSeen() {
+        return keysSeen;
+    }
+
+    // the number of keys that were not cached and had to be labeled
+    public long getKeysLabeled() {
+        return keysLabeled;
+    }
+
+    public long getLabelMillis() {
+        return labelNanos / 1000000;
+    }
+
+    // labels the keys with the built-in labeler, splitting them evenly
+    // between the labeling threads
+    private long[] runLabeler(int order, long[] keys) {
+        long[] canonical = new long[keys.length];
+        LabelThread[] threads = new LabelThread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new LabelThread(order, keys, canonical,
+                (int)((long)keys.length * i / nThreads),
+                (int)((long)keys.length * (i + 1) / nThreads));
+            threads[i].start();
         }
-        r.close();
+        for (int i = 0; i < nThreads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted exception thrown...");
+                e.printStackTrace();
+            }
+        }
+        return canonical;
     }
 
-    private void deleteFile(String filename) {
-        try {
-            File f = new File(filename);
-            f.delete();
-        } catch (Exception e) {
-            System.err.println("Exception " + e +
-                " raised when attempting to delete " + filename);
+    // labels the keys with a pool of labelg processes
+    private long[] runLabelg(int order, long[] keys) throws IOException {
+        String[] graphs = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            graphs[i] = AdjacencyMatrix.toGraph6(order, keys[i]);
         }
+
+        LabelgPool pool =
+            new LabelgPool(Runtime.getRuntime().availableProcessors());
+        String[] labels = pool.label(graphs);
+
+        long[] canonical = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            canonical[i] = AdjacencyMatrix.fromBytes(
+                labels[i].getBytes(StandardCharsets.UTF_8)).toKey();
+        }
+        return canonical;
     }
 
-}
\ No newline at end of file
+    // converts canonical key counts of every order to graph6 label counts
+    // (graph6 strings of different orders never collide, so the labels can
+    // share one map)
+    private static Map<String, Long> toGraph6(
+        Map<Integer, LongCountMap> canonical) {
+        Map<String, Long> labels = new HashMap<String, Long>();
+        for (Map.Entry<Integer, LongCountMap> entry:canonical.entrySet()) {
+            int order = entry.getKey();
+            LongCountMap.Iter iter = entry.getValue().iterator();
+            while (iter.hasNext()) {
+                long key = iter.next();
+                labels.put(AdjacencyMatrix.toGraph6(order, key),
+                           iter.count());
+            }
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,177 @@
+// LabelgPool.java
+//
+// Labels graph6 strings with several labelg processes running in parallel.
+// The graphs are split into batches; each worker thread streams a batch to
+// a labelg process through its standard input and reads the canonical
+// labels back from its standard output, in input order. Nothing is written
+// to the filesystem.
+//
+// labelg block-buffers its output when writing to a pipe and cannot be told
+// to flush after each graph, so a process only answers once its input is
+// closed. Each batch therefore gets its own process. A failed batch is
+// reported and retried with a new process.
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LabelgPool {
+
+    // labelg program options
+    private static final String programName = "./labelg";
+    private static final int invariant = 3;
+    private static final int mininvarlevel = 1;
+    private static final int maxinvarlevel = 100;
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String[] args = {
+        programName,
+        "-q",
+        "-i" + invariant,
+        "-I" + mininvarlevel + ":" + maxinvarlevel};
+
+    private class Worker extends Thread {
+
+        private IOException failure;
+
+        public void run() {
+            int batch = nextBatch.getAndIncrement();
+            while (batch < batches && !failed) {
+                try {
+                    labelBatch(batch);
+                } catch (IOException e) {
+                    failure = e;
+                    failed = true;
+                    return;
+                }
+                batch = nextBatch.getAndIncrement();
+            }
+        }
+    }
+
+    private int processes;
+    private String[] graphs;
+    private String[] labels;
+    private int batches;
+    private AtomicInteger nextBatch;
+    private volatile boolean failed;
+
+    // runs up to 'processes' labelg processes at a time
+    public LabelgPool(int processes) {
+        this.processes = processes;
+    }
+
+    // returns the canonical label of each of the given graph6 strings
+    public String[] label(String[] graphs) throws IOException {
+        this.graphs = graphs;
+        this.labels = new String[graphs.length];
+        this.batches = (graphs.length + BATCH_SIZE - 1) / BATCH_SIZE;
+        this.nextBatch = new AtomicInteger();
+        this.failed = false;
+
+        Worker[] workers = new Worker[Math.min(processes, batches)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            workers[i].start();
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted while labeling");
+            }
+            if (workers[i].failure != null) {
+                failure = workers[i].failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return labels;
+    }
+
+    // labels one batch, retrying with a new process if labelg fails
+    private void labelBatch(int batch) throws IOException {
+        int from = batch * BATCH_SIZE;
+        int to = Math.min(from + BATCH_SIZE, graphs.length);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                runLabelg(from, to);
+                return;
+            } catch (IOException e) {
+                System.err.println("`labelg` failed on batch " + batch +
+                    " (" + (to - from) + " graphs), attempt " + attempt +
+                    " of " + MAX_ATTEMPTS + ": " + e.getMessage());
+                if (attempt == MAX_ATTEMPTS) {
+                    throw new IOException("`labelg` failed on batch " +
+                        batch + " after " + MAX_ATTEMPTS + " attempts", e);
+                }
+            }
+        }
+    }
+
+    // runs one labelg process over the graphs in [from, to)
+    private void runLabelg(final int from, final int to) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(args);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        final Process labelg = builder.start();
+
+        // feed the input from another thread, so neither side of the
+        // pipes can fill up while the other is blocked
+        final IOException[] writeFailure = new IOException[1];
+        Thread feeder = new Thread() {
+            public void run() {
+                try {
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        labelg.getOutputStream(), StandardCharsets.UTF_8));
+                    for (int i = from; i < to; i++) {
+                        writer.write(graphs[i]);
+                        writer.write('\n');
+                    }
+                    writer.close();
+                } catch (IOException e) {
+                    writeFailure[0] = e;
+                }
+            }
+        };
+        feeder.start();
+
+        int count = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                labelg.getInputStream(), StandardCharsets.UTF_8));
+            String line = reader.readLine();
+            while (line != null) {
+                if (from + count < to) {
+                    labels[from + count] = line;
+                }
+                count++;
+                line = reader.readLine();
+            }
+            reader.close();
+
+            feeder.join();
+            int returnCode = labelg.waitFor();
+            if (returnCode != 0) {
+                throw new IOException(
+                    "exited with a return code of " + returnCode);
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while labeling");
+        } finally {
+            labelg.destroy();
+        }
+
+        if (writeFailure[0] != null) {
+            throw writeFailure[0];
+        }
+        if (count != to - from) {
+            throw new IOException("returned " + count + " labels for " +
+                (to - from) + " graphs");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+// LongCountMap.java
+//
+// Counts occurrences of long keys. Keys and counts are stored in parallel
+// primitive arrays using open addressing with linear probing, so counting
+// an existing key does not allocate.
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+public class LongCountMap {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final long EMPTY_KEY = 0L;
+
+    private long[] keys;
+    private long[] counts;
+    private int size;
+    private int mask;
+    private int shift;      // 64 - log2(capacity)
+    private int threshold;
+
+    // the empty key marks free slots, so its count is kept separately
+    private boolean hasEmptyKey;
+    private long emptyKeyCount;
+
+    public LongCountMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongCountMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException(
+                "Argument out of range (must be non-negative).");
+        }
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size + (hasEmptyKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public long increment(long key) {
+        return add(key, 1);
+    }
+
+    // adds to the count of a key, returning its new count
+    public long add(long key, long count) {
+        if (key == EMPTY_KEY) {
+            hasEmptyKey = true;
+            emptyKeyCount += count;
+            return emptyKeyCount;
+        }
+
+        int slot = slotFor(key);
+        while (keys[slot] != EMPTY_KEY) {
+            if (keys[slot] == key) {
+                counts[slot] += count;
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        size++;
+        if (size > threshold) {
+            rehash(keys.length * 2);
+        }
+        return count;
+    }
+
+    public long get(long key) {
+        if (key == EMPTY_KEY) {
+            return emptyKeyCount;
+        }
+
+        int slot = slotFor(key);
+        while (keys[slot] != EMPTY_KEY) {
+            if (keys[slot] == key) {
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    // removes a key, returning its count (0 if it was not present)
+    public long remove(long key) {
+        if (key == EMPTY_KEY) {
+            long count = emptyKeyCount;
+            hasEmptyKey = false;
+            emptyKeyCount = 0;
+            return count;
+        }
+
+        int slot = slotFor(key);
+        while (keys[slot] != key) {
+            if (keys[slot] == EMPTY_KEY) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+        long count = counts[slot];
+
+        // shift later entries of the probe sequence back into the gap, so
+        // lookups never stop early at it
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY_KEY) {
+            int home = slotFor(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                counts[gap] = counts[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY_KEY;
+        size--;
+        return count;
+    }
+
+    // adds all counts of another map to this one
+    public void addAll(LongCountMap other) {
+        Iter iter = other.iterator();
+        while (iter.hasNext()) {
+            long key = iter.next();
+            add(key, iter.count());
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        size = 0;
+        hasEmptyKey = false;
+        emptyKeyCount = 0;
+    }
+
+    public Iter iterator() {
+        return new Iter(this);
+    }
+
+    private int slotFor(long key) {
+        // Fibonacci hashing spreads the packed adjacency bits, which are
+        // otherwise heavily clustered in the low bits
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        threshold = capacity * 3 / 4;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = slotFor(oldKeys[i]);
+                while (keys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    public static class Iter {
+
+        private LongCountMap map;
+        private int slot;
+        private boolean emptyKeyPending;
+        private long count;
+
+        public Iter(LongCountMap map) {
+            this.map = map;
+            this.slot = -1;
+            this.emptyKeyPending = map.hasEmptyKey;
+            moveToNext();
+        }
+
+        private void moveToNext() {
+            slot++;
+            while (slot < map.keys.length && map.keys[slot] == EMPTY_KEY) {
+                slot++;
+            }
+        }
+
+        public boolean hasNext() {
+            return emptyKeyPending || slot < map.keys.length;
+        }
+
+        // returns the next key; its count is then available from count()
+        public long next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (emptyKeyPending) {
+                emptyKeyPending = false;
+                count = map.emptyKeyCount;
+                return EMPTY_KEY;
+            }
+            long key = map.keys[slot];
+            count = map.counts[slot];
+            moveToNext();
+            return key;
+        }
+
+        public long count() {
+            return count;
+        }
+    }
+}
@@ -3,51 +3,69 @@
 import java.io.IOException;
 import java.util.*;
 
-import mpi.*;
-
 public class Main {
 
-    private static class ComputeThread extends Thread {
-
-        private int motifSize;
-        private Graph graph;
-        private Map<String, Integer> subgraphs;
-
-        public ComputeThread(int motifSize, Graph graph,
-                             Map<String, Integer> subgraphs) {
-            this.motifSize = motifSize;
-            this.graph = graph;
-            this.subgraphs = subgraphs;
-        }
+    public void run() throws CommunicationException {
+        int commRank = communicator.rank();
+        int commSize = communicator.size();
+        long start = System.currentTimeMillis();
 
-        public void run() {
-            int node = getNextNode();
-            while (node < graph.size()) {
-                graph.enumerate(node, motifSize, subgraphs);
-                node = getNextNode();
+        metrics = new Metrics(commRank);
+        if (options.getMetrics() != null) {
+            try {
+                metrics.start(options.getMetrics(),
+                              options.getMetricsInterval());
+            } catch (IOException e) {
+                System.out.println("Unable to write metrics on rank " +
+                    commRank + ", continuing without them: " +
+                    e.getMessage());
             }
         }
-    }
 
-    public void run() throws MPIException {
-        int commRank = MPI.COMM_WORLD.Rank();
-        int commSize = MPI.COMM_WORLD.Size();
-        long start = System.currentTimeMillis();
-
-        // setup static (shared) variables for dynamic load balancing
-        lock = new Object();
-        nextNode = commRank;
-        interval = commSize;
+        // a preprocessed graph file (see GraphFile) is loaded by every rank
+        // directly; anything else is parsed on the master and broadcast
+        int[] binary = new int[1];
+        if (commRank == master) {
+            binary[0] = GraphFile.isGraphFile(filename) ? 1 : 0;
+        }
+        binary = communicator.broadcast(binary, master);
+        metrics.communicated("broadcast", 4);
 
         // build the graph
         Graph graph = null;
-        if (commRank == master) {
+        metrics.setPhase("parse");
+        if (binary[0] == 1) {
+            if (commRank == master) {
+                System.out.println("Mapping graph file '" + filename +
+                                   "'...");
+            }
+            start = System.currentTimeMillis();
+            try {
+                graph = GraphFile.read(filename);
+            } catch (IOException e) {
+                System.out.println("Unable to read graph file on rank " +
+                    commRank + ": " + e.getMessage());
+                communicator.abort(-1);
+                return;
+            }
+            if (commRank == master) {
+                System.out.println(
+                    (System.currentTimeMillis() - start) + " milliseconds " +
+                    "to map a network of size " + graph.size());
+            }
+        } else if (commRank == master) {
             System.out.println("Parsing input data file '" + filename + "'...");
             start = System.currentTimeMillis();
             try {
-                graph = new Graph(filename);
+                Random random = null;
+                if (options.getShuffle()) {
+                    random = options.getSeed() != null
+                        ? new Random(options.getSeed()) : new Random();
+                }
+                graph = new Graph(filename, nThreads, random);
             } catch (IOException e) {
                 System.out.println("Unable to parse data file");
+                communicator.abort(-1);
                 return;
             }
             System.out.println(
@@ -55,21 +73,33 @@ public class Main {
                 "generate a network of size " + graph.size());
         }
 
+        // every rank holding the graph orders it the same way
+        if (graph != null && !options.getOrder().equals(VertexOrder.NONE)) {
+            metrics.setPhase("order");
+            start = System.currentTimeMillis();
+            graph = VertexOrder.apply(graph, options.getOrder());
+            if (commRank == master) {
+                System.out.println(
+                    (System.currentTimeMillis() - start) + " milliseconds " +
+                    "to reorder nodes by " + options.getOrder());
+            }
+        }
+
         if (commRank == master) {
-            System.out.println("Setting up MPI nodes...");
+            System.out.println("Setting up nodes...");
             start = System.currentTimeMillis();
         }
 
         // broadcast the base graph from the master to all nodes
-        // (MPI requires object array to send and receive data)
-        Object[] packet = mpiPacket(graph);
-        MPI.COMM_WORLD.Bcast(packet, 0, 1, MPI.OBJECT, master);
-        graph = (Graph)packet[0];
+        if (binary[0] == 0) {
+            metrics.setPhase("broadcast");
+            graph = broadcastGraph(graph, commRank);
+        }
 
         if (commRank == master) {
             System.out.println(
                 (System.currentTimeMillis() - start) + " milliseconds to " +
-                "set up MPI nodes.");
+                "set up nodes.");
 
             System.out.println(
                 "Executing ESU and determining subgraph (label) frequency " +
@@ -77,39 +107,90 @@ public class Main {
             start = System.currentTimeMillis();
         }
 
-        // execute ESU for the indexes this rank is responsible for, equal
-        // to: indexes = (rank + (size * n))
-        Map<String, Integer> subgraphs = new HashMap<String, Integer>();
-
-        // start worker threads at this node
-        for (int i = 0; i < threads.length; i++) {
-            threads[i] = new ComputeThread(motifSize, graph, subgraphs);
-            threads[i].start();
+        // small motifs are counted directly by motif id, which makes the
+        // labeling phase unnecessary (the table matches the built-in
+        // labeler, so it is not used with labelg)
+        MotifTable table = null;
+        if (!options.getUseLabelg() && motifSize <= MotifTable.MAX_ORDER) {
+            table = MotifTable.get(motifSize, nThreads);
         }
 
-        // execute algorithm for main thread at this node
-        int node = getNextNode();
-        while (node < graph.size()) {
-            graph.enumerate(node, motifSize, subgraphs);
-            node = getNextNode();
+        // execute ESU for the indexes this rank is responsible for, equal
+        // to: indexes = (rank + (size * n)), or for the chunks of indexes
+        // the master hands out on request. Each thread counts with its
+        // own Enumerator, so no locking is needed until the counts are
+        // merged after all roots are done.
+        long enumerationStart = System.currentTimeMillis();
+        EnumerationPool pool =
+            new EnumerationPool(graph, motifSize, table, nThreads);
+        metrics.setPool(pool);
+        pool.setMinimumSize(options.getMinimumSize());
+
+        // RAND-ESU and the random graphs draw from a seed shared by all
+        // nodes, so the results do not depend on the number of nodes
+        long seed = 0;
+        if (options.getSampling() != null || options.getRandomGraphs() > 0) {
+            seed = commonSeed(commRank);
         }
-
-        // join on worker threads at this node
-        for (int i = 0; i < threads.length; i++) {
-            try {
-                threads[i].join();
-            } catch (InterruptedException e) {
-                System.out.println("Interrupted exception thrown...");
-                e.printStackTrace();
+        if (options.getSampling() != null) {
+            pool.setSampling(options.getSampling(), seed);
+        }
+        if (options.getMemoryLimit() > 0) {
+            if (!startSpilling(pool, commRank)) {
+                return;
             }
         }
+        Checkpoint checkpoint = null;
+        if (options.getCheckpoint() != null) {
+            checkpoint = startCheckpoint(graph, pool, table, seed,
+                                         commRank, commSize);
+            if (checkpoint == null) {
+                return;
+            }
+        }
+        metrics.setPhase("enumerate");
+        if (options.getChunkSize() > 0) {
+            RootDispenser dispenser = new RootDispenser(communicator,
+                graph.size(), options.getChunkSize(), master,
+                options.getThreads());
+            pool.enumerate(dispenser);
+        } else {
+            pool.enumerate(commRank, commSize);
+        }
+        if (checkpoint != null) {
+            pool.writeCheckpoints();
+        }
+        reportLoad(commRank, commSize, pool.getBusyMillis(),
+                   System.currentTimeMillis() - enumerationStart);
 
         // run the labeler on each MPI node before gathering data,
         // to minimize size of data transfer
-        Labeler labeler = new Labeler();
-        Map<String, Integer> labels = labeler.getCanonicalLabels(subgraphs);
+        LabelCache cache = null;
+        Labeler labeler = null;
+        if (table == null || options.getMinimumSize() < motifSize) {
+            cache = openLabelCache();
+            labeler = new Labeler(
+                options.getUseLabelg(), options.getThreads(), cache);
+            metrics.setLabeler(labeler);
+        }
+        metrics.setPhase("label");
+        // when sampling, the sums of squares are labeled as well, to
+        // estimate the variance (see Sampling)
+        Map<String, Long> labels = null;
+        Map<String, long[]> sums = null;
+        if (options.getSampling() != null) {
+            sums = countSumLabels(pool, table, labeler, commRank);
+            if (sums == null) {
+                return;
+            }
+        } else {
+            labels = countLabels(pool, table, labeler, 0, commRank);
+            if (labels == null) {
+                return;
+            }
+        }
 
-        MPI.COMM_WORLD.Barrier();
+        communicator.barrier();
 
         if (commRank == master) {
             System.out.println(
@@ -120,77 +201,412 @@ public class Main {
             start = System.currentTimeMillis();
         }
 
-        // use gather to collect objects back at the master node
-        // (MPI requires object array to send and receive data)
-        Object[] packets = new Object[commSize];
-        MPI.COMM_WORLD.Gather(
-            mpiPacket(labels),  0, 1, MPI.OBJECT,
-            packets           , 0, 1, MPI.OBJECT, master);
+        // combine the label counts of all nodes at the master
+        metrics.setPhase("collect");
+        if (sums != null) {
+            sums = reduceToMaster(sums, commRank, commSize,
+                new Combiner<Map<String, long[]>>() {
+                    public void combine(Map<String, long[]> target,
+                                        Map<String, long[]> source) {
+                        mergeSums(target, source);
+                    }
+                });
+            if (commRank == master) {
+                labels = Sampling.totals(sums);
+            }
+        } else {
+            labels = reduceToMaster(labels, commRank, commSize,
+                new Combiner<Map<String, Long>>() {
+                    public void combine(Map<String, Long> target,
+                                        Map<String, Long> source) {
+                        merge(target, source);
+                    }
+                });
+        }
+
+        if (commRank == master) {
+            System.out.println(
+                (System.currentTimeMillis() - start) + " milliseconds to " +
+                "collect label frequencies");
+
+            if (showResults && sums != null) {
+                Sampling.print(sums, options.getSampling());
+            } else if (showResults) {
+                System.out.println("Label\tFrequency");
+                for (Map.Entry<String, Long> entry:labels.entrySet()) {
+                    System.out.println(entry.getKey() + "\t" +
+                                       entry.getValue());
+                }
+            }
+        }
+
+        if (options.getRandomGraphs() > 0) {
+            countRandomGraphs(graph, pool, table, labeler, labels, seed,
+                              commRank, commSize);
+        }
+
+        pool.shutdown();
+        if (cache != null) {
+            closeLabelCache(cache, commRank);
+        }
+        if (runs != null && runs.getRunsWritten() > 0) {
+            System.out.println("Rank " + commRank + " spilled " +
+                runs.getRunsWritten() + " runs of counts (" +
+                (runs.getBytesWritten() >> 20) + " MB)");
+        }
+        metrics.finish();
+    }
+
+    // combines the value of one node into that of another
+    private interface Combiner<T> {
+        void combine(T target, T source);
+    }
+
+    private final static int master = 0;  // the master rank
+    private final static int tag = 0;     // Send/Recv's tag is always 0.
+    private int nThreads;
+    private int motifSize;
+    private String filename;
+    private boolean showResults;
+    private Options options;
+    private Communicator communicator;
+    private Metrics metrics;
+    private CountRuns runs;
+    public Main(Options options, Communicator communicator) {
+        this.nThreads = options.getThreads();
+        this.filename = options.getFilename();
+        this.motifSize = options.getMotifSize();
+        this.showResults = options.getShowResults();
+        this.options = options;
+        this.communicator = communicator;
+    }
+
+    // sends the master's graph to all nodes as its flat CSR arrays, which
+    // the other nodes build their graph from directly (the arrays are
+    // never modified, so nodes in one process may share them)
+    private Graph broadcastGraph(Graph graph, int commRank)
+        throws CommunicationException {
+        int[] offsets = null;
+        int[] neighbours = null;
+        if (commRank == master) {
+            offsets = graph.getOffsets();
+            neighbours = graph.getNeighbours();
+        }
+        offsets = communicator.broadcast(offsets, master);
+        neighbours = communicator.broadcast(neighbours, master);
+        metrics.communicated("broadcast", 4L * offsets.length);
+        metrics.communicated("broadcast", 4L * neighbours.length);
+
+        if (commRank == master) {
+            return graph;
+        }
+        return new Graph(offsets, neighbours);
+    }
 
-        // only need master node from this point forward.
+    // prints how long each rank's threads were busy enumerating and how
+    // long they were idle (waiting for other threads of the rank, or for
+    // roots) during the enumeration phase
+    private void reportLoad(int commRank, int commSize, long busy,
+                            long wall) throws CommunicationException {
+        long[] times = {busy, wall};
+        long[] allTimes = communicator.gather(times, master);
+        metrics.communicated("gather",
+                             8L * (commRank == master ? 2 * commSize : 2));
         if (commRank != master) {
             return;
         }
+        System.out.println("Rank\tBusy ms\tIdle ms");
+        for (int i = 0; i < commSize; i++) {
+            long rankBusy = allTimes[2 * i];
+            long rankWall = allTimes[(2 * i) + 1];
+            System.out.println(i + "\t" + rankBusy + "\t" +
+                Math.max(0, rankWall - rankBusy));
+        }
+    }
+
+    // opens the label cache, if one was requested and can be used
+    private LabelCache openLabelCache() {
+        if (options.getLabelCache() == null) {
+            return null;
+        }
+        try {
+            return new LabelCache(options.getLabelCache(),
+                options.getUseLabelg() ? LabelCache.LABELER_LABELG
+                                       : LabelCache.LABELER_BUILT_IN,
+                options.getLabelCacheSize());
+        } catch (IOException e) {
+            System.out.println("Unable to open label cache, continuing " +
+                "without it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // reports the cache's hit rate and closes it
+    private static void closeLabelCache(LabelCache cache, int rank) {
+        long hits = cache.getHits();
+        long lookups = hits + cache.getMisses();
+        System.out.println("Rank " + rank + " label cache: " + hits +
+            " hits, " + cache.getMisses() + " misses (" +
+            (lookups == 0 ? 0 : (100 * hits) / lookups) + "% hit rate), " +
+            cache.getEvictions() + " evictions");
+        try {
+            cache.close();
+        } catch (IOException e) {
+            System.out.println("Unable to close label cache: " +
+                e.getMessage());
+        }
+    }
+
+    // combines the values of all nodes at the master along a binomial
+    // tree: in round r, every node whose rank has bit r set (and no lower
+    // bit) sends its partial result to rank - 2^r, which combines it with
+    // its own. Combines of one round run on different nodes at the same
+    // time, so there are log2(size) rounds and no node receives more than
+    // that many values. Returns the total on the master, null elsewhere.
+    private <T> T reduceToMaster(T value, int commRank, int commSize,
+                                 Combiner<T> combiner)
+        throws CommunicationException {
+        int relative = (commRank - master + commSize) % commSize;
+        for (int step = 1; step < commSize; step <<= 1) {
+            if ((relative & step) != 0) {
+                int parent = (relative - step + master) % commSize;
+                communicator.sendObject(value, parent, tag);
+                metrics.communicated("send", metrics.sizeOf(value));
+                return null;
+            }
+            if (relative + step < commSize) {
+                int child = (relative + step + master) % commSize;
+                Object received = communicator.receiveObject(child, tag);
+                metrics.communicated("receive", metrics.sizeOf(received));
+
+                // convert generic Object types
+                @SuppressWarnings("unchecked")
+                T result = (T)received;
+                combiner.combine(value, result);
+            }
+        }
+        return value;
+    }
 
-        System.out.println(
-            (System.currentTimeMillis() - start) + " milliseconds to " +
-            "collect label frequencies");
+    // lets the pool's threads spill their counts to disk once they fill
+    // half of the memory limit between them; the other half is left for
+    // labeling the spilled counts in batches. Returns false if the spill
+    // directory could not be used (after aborting all nodes).
+    private boolean startSpilling(EnumerationPool pool, int commRank) {
+        try {
+            runs = new CountRuns(options.getSpillDirectory(), commRank);
+        } catch (IOException e) {
+            System.out.println("Unable to spill counts on rank " +
+                commRank + ": " + e.getMessage());
+            communicator.abort(-1);
+            return false;
+        }
+        pool.setSpilling(runs, CountRuns.tableSize(
+            options.getMemoryLimit() / 2 / nThreads));
+        return true;
+    }
+
+    // starts checkpointing the enumeration, resuming from the latest
+    // checkpoint with --resume: every node skips the units completed by
+    // any node, and counts those it completed itself. Returns null if the
+    // checkpoint could not be used (after aborting all nodes).
+    private Checkpoint startCheckpoint(Graph graph, EnumerationPool pool,
+                                       MotifTable table, long seed,
+                                       int commRank, int commSize)
+        throws CommunicationException {
+        Checkpoint checkpoint = new Checkpoint(options.getCheckpoint(),
+            commRank,
+            Checkpoint.fingerprint(graph, motifSize, options.getMinimumSize(),
+                                   options.getSampling(), seed),
+            pool.sums(), table != null ? table.size() : 0,
+            options.getCheckpointInterval());
+        try {
+            checkpoint.start(options.getResume());
+        } catch (IOException e) {
+            System.out.println("Unable to use checkpoint on rank " +
+                commRank + ": " + e.getMessage());
+            communicator.abort(-1);
+            return null;
+        }
 
-        // collect the labels into one master label collection
-        for (int i = 1; i < packets.length; i++) {
-            // convert generic Object types
-            @SuppressWarnings("unchecked")
-            Map<String, Integer> result = (Map<String, Integer>)packets[i];
+        // collect the completed units of all nodes on every node
+        long[] allUnits = communicator.allGather(checkpoint.getBaseUnits());
+        metrics.communicated("allgather", 8L * allUnits.length);
+        checkpoint.setDone(allUnits);
+        int total = allUnits.length;
 
-            // merge the received label counts with the master node's
-            // label counts
-            for (Map.Entry<String, Integer> entry:result.entrySet()) {
-                int count = entry.getValue();
-                if (labels.containsKey(entry.getKey())) {
-                    count += labels.get(entry.getKey());
+        if (commRank == master && options.getResume()) {
+            System.out.println("Resuming " + total + " completed roots " +
+                               "and branches from checkpoints");
+        }
+        pool.setCheckpoint(checkpoint);
+        return checkpoint;
+    }
+
+    // the master's --seed, or a random one, on every node
+    private long commonSeed(int commRank) throws CommunicationException {
+        long[] seed = new long[1];
+        if (commRank == master) {
+            seed[0] = options.getSeed() != null ? options.getSeed()
+                                                : new Random().nextLong();
+        }
+        seed = communicator.broadcast(seed, master);
+        metrics.communicated("broadcast", 8);
+        return seed[0];
+    }
+
+    // the label counts of the subgraphs the pool has enumerated (or, if
+    // 'sum' is positive, one of the sums of squares of Sampling.sums()),
+    // or null if labeling failed (after aborting all nodes)
+    private Map<String, Long> countLabels(EnumerationPool pool,
+                                          MotifTable table, Labeler labeler,
+                                          int sum, int commRank)
+        throws CommunicationException {
+        Map<String, Long> labels = new HashMap<String, Long>();
+        if (table != null) {
+            labels = table.getLabels(pool.getMotifCounts(sum));
+            if (options.getMinimumSize() == motifSize) {
+                return labels;
+            }
+        }
+
+        // the counts by packed key: all of them without a table, and the
+        // smaller sizes of --all-sizes with one. Spilled counts are merged
+        // from disk and labeled in batches, which take about twice the
+        // memory of a counting table of their size.
+        try {
+            if (runs != null && !runs.isEmpty()) {
+                try {
+                    merge(labels, labeler.getCanonicalLabels(
+                        pool.mergeCounts(), motifSize,
+                        CountRuns.tableSize(options.getMemoryLimit() / 4)));
+                } finally {
+                    runs.clear();
                 }
-                labels.put(entry.getKey(), count);
+            } else {
+                merge(labels, labeler.getCanonicalLabels(
+                    pool.getCounts(sum), motifSize));
             }
+            return labels;
+        } catch (IOException e) {
+            // the other ranks would wait for this one forever
+            System.out.println("Unable to label subgraphs on rank " +
+                commRank + ": " + e.getMessage());
+            communicator.abort(-1);
+            return null;
         }
+    }
 
-        if (showResults) {
-            System.out.println("Label\tFrequency");
-            for (Map.Entry<String, Integer> entry:labels.entrySet()) {
-                System.out.println(entry.getKey() + "\t" + entry.getValue());
+    // every sum of a sampling pool (see Sampling.sums()) by label, or null
+    // if labeling failed
+    private Map<String, long[]> countSumLabels(EnumerationPool pool,
+                                               MotifTable table,
+                                               Labeler labeler,
+                                               int commRank)
+        throws CommunicationException {
+        Map<String, long[]> sums = new HashMap<String, long[]>();
+        for (int sum = 0; sum < pool.sums(); sum++) {
+            Map<String, Long> labels =
+                countLabels(pool, table, labeler, sum, commRank);
+            if (labels == null) {
+                return null;
+            }
+            for (Map.Entry<String, Long> entry:labels.entrySet()) {
+                long[] values = sums.get(entry.getKey());
+                if (values == null) {
+                    values = new long[pool.sums()];
+                    sums.put(entry.getKey(), values);
+                }
+                values[sum] = entry.getValue();
             }
         }
+        return sums;
     }
 
-    private final static int master = 0;  // the master rank
-    private final static int tag = 0;     // Send/Recv's tag is always 0.
-    private Thread[] threads;
-    private int motifSize;
-    private String filename;
-    private boolean showResults;
-    public Main(int nThreads, String filename, int motifSize, boolean showResults) {
-        this.threads = new Thread[nThreads - 1];
-        this.filename = filename;
-        this.motifSize = motifSize;
-        this.showResults = showResults;
-    }
-
-    // creates an object array container, or "packet", for a single object
-    private static Object[] mpiPacket(Object obj) {
-        Object[] packet = new Object[1];
-        packet[0] = obj;
-        return packet;
-    }
-
-    private static Object lock;
-    private static int nextNode;
-    private static int interval;
-
-    // provides the next available node to the requesting thread
-    private static int getNextNode() {
-        synchronized (lock) {
-            int node = nextNode;
-            nextNode = nextNode + interval;
-            return node;
+    // counts the motifs of random graphs with the degrees of 'graph' (see
+    // EdgeSwitcher) and prints how significant each label of the real
+    // graph is. Random graph i is generated and enumerated by node
+    // i mod size, using all of its threads; the pool's Enumerators are
+    // reused for every graph.
+    private void countRandomGraphs(Graph graph, EnumerationPool pool,
+                                   MotifTable table, Labeler labeler,
+                                   Map<String, Long> labels, long seed,
+                                   int commRank, int commSize)
+        throws CommunicationException {
+        int graphs = options.getRandomGraphs();
+        long start = System.currentTimeMillis();
+        metrics.setPhase("random");
+        if (commRank == master) {
+            System.out.println("Counting motifs in " + graphs +
+                               " random networks...");
+        }
+
+        // every node needs the real counts
+        @SuppressWarnings("unchecked")
+        Map<String, Long> real = (Map<String, Long>)
+            communicator.broadcastObject(labels, master);
+        metrics.communicated("broadcast", metrics.sizeOf(real));
+
+        Significance significance = new Significance();
+        for (int i = commRank; i < graphs; i += commSize) {
+            Random random = new Random(seed + (i * 0x9E3779B97F4A7C15L));
+            Graph randomGraph = EdgeSwitcher.randomize(graph,
+                EdgeSwitcher.DEFAULT_SWITCHES_PER_EDGE, random);
+            pool.reset(randomGraph);
+            pool.enumerate(0, 1);
+            Map<String, Long> randomLabels =
+                countLabels(pool, table, labeler, 0, commRank);
+            if (randomLabels == null) {
+                return;
+            }
+            significance.add(randomLabels, real);
+        }
+
+        significance = reduceToMaster(significance, commRank, commSize,
+            new Combiner<Significance>() {
+                public void combine(Significance target,
+                                    Significance source) {
+                    target.merge(source);
+                }
+            });
+
+        if (commRank == master) {
+            System.out.println(
+                (System.currentTimeMillis() - start) + " milliseconds to " +
+                "count motifs in " + significance.getGraphs() +
+                " random networks");
+            double scale = 1;
+            if (options.getSampling() != null) {
+                scale = 1 / Sampling.fraction(options.getSampling());
+            }
+            significance.print(real, scale);
+        }
+    }
+
+    // adds the counts of 'source' to 'target'
+    private static void merge(Map<String, Long> target,
+                              Map<String, Long> source) {
+        for (Map.Entry<String, Long> entry:source.entrySet()) {
+            long count = entry.getValue();
+            if (target.containsKey(entry.getKey())) {
+                count += target.get(entry.getKey());
+            }
+            target.put(entry.getKey(), count);
+        }
+    }
+
+    // adds the sums of 'source' to 'target'
+    private static void mergeSums(Map<String, long[]> target,
+                                  Map<String, long[]> source) {
+        for (Map.Entry<String, long[]> entry:source.entrySet()) {
+            long[] counts = target.get(entry.getKey());
+            if (counts == null) {
+                target.put(entry.getKey(), entry.getValue());
+            } else {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += entry.getValue()[i];
+                }
+            }
         }
     }
 }
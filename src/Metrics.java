@@ -0,0 +1,225 @@
+// Metrics.java
+//
+// Progress and performance counters of a rank, written while it runs so
+// slow threads, slow ranks and drops in throughput show up before the run
+// ends. With --metrics=FILE every rank appends a JSON object per line to
+// FILE.<rank>, every --metrics-interval seconds and once more at the end.
+// Each line holds the phase of the run, the totals of the rank, the
+// statistics of each enumeration thread (see THREAD_FIELDS), the labeler's
+// batches and the bytes moved by each kind of Communicator operation.
+//
+// The counters themselves are plain fields of the threads that update
+// them (see Enumerator.getSubgraphs() and
+// EnumerationPool.getThreadStatistics()), so the hot path only adds an
+// increment per subgraph; they are read without locking, so a line may
+// lag slightly behind the threads.
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class Metrics extends Thread {
+
+    public static final int DEFAULT_INTERVAL = 10;  // seconds
+
+    // the names of the values of EnumerationPool.getThreadStatistics()
+    public static final String[] THREAD_FIELDS = {
+        "units", "subgraphs", "patterns", "busy_ms", "longest_unit_us",
+        "longest_unit_root"
+    };
+
+    private int rank;
+    private PrintWriter out;
+    private long intervalMillis;
+    private long start;
+    private volatile String phase = "start";
+    private volatile EnumerationPool pool;
+    private volatile Labeler labeler;
+
+    // per communication operation: the number of calls and the bytes moved
+    private Map<String, long[]> communication;
+
+    // the subgraph total and time of the previous line, for the rate
+    private long lastSubgraphs;
+    private long lastTime;
+
+    public Metrics(int rank) {
+        this.rank = rank;
+        this.start = System.currentTimeMillis();
+        this.lastTime = start;
+        this.communication = new LinkedHashMap<String, long[]>();
+        setDaemon(true);
+    }
+
+    // starts writing to 'file'.<rank>; without this call nothing is
+    // recorded
+    public void start(String file, int intervalSeconds) throws IOException {
+        out = new PrintWriter(new FileWriter(file + "." + rank));
+        intervalMillis = intervalSeconds * 1000L;
+        start();
+    }
+
+    public boolean isEnabled() {
+        return out != null;
+    }
+
+    // the stage of the run, such as "parse" or "enumerate"
+    public void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    // the pool and labeler whose counters are reported
+    public void setPool(EnumerationPool pool) {
+        this.pool = pool;
+    }
+
+    public void setLabeler(Labeler labeler) {
+        this.labeler = labeler;
+    }
+
+    // records an operation that moved 'bytes' to or from this rank
+    public void communicated(String operation, long bytes) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (communication) {
+            long[] values = communication.get(operation);
+            if (values == null) {
+                values = new long[2];
+                communication.put(operation, values);
+            }
+            values[0]++;
+            values[1] += bytes;
+        }
+    }
+
+    // the serialized size of an object sent between ranks, or 0 when
+    // disabled (so it is only computed when it is recorded)
+    public long sizeOf(Object object) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        CountingStream counter = new CountingStream();
+        try {
+            ObjectOutputStream stream = new ObjectOutputStream(counter);
+            stream.writeObject(object);
+            stream.close();
+        } catch (IOException e) {
+            // only the size is wanted, so report what was written
+        }
+        return counter.count;
+    }
+
+    // writes the last line and closes the file
+    public void finish() {
+        if (!isEnabled()) {
+            return;
+        }
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            // the line below is written either way
+        }
+        setPhase("done");
+        write();
+        out.close();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            write();
+        }
+    }
+
+    private synchronized void write() {
+        long now = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder();
+        line.append("{\"time_ms\":").append(now - start);
+        line.append(",\"rank\":").append(rank);
+        line.append(",\"phase\":\"").append(phase).append('"');
+
+        EnumerationPool pool = this.pool;
+        if (pool != null) {
+            long[][] threads = pool.getThreadStatistics();
+            long[] totals = new long[THREAD_FIELDS.length];
+            StringBuilder perThread = new StringBuilder();
+            for (int i = 0; i < threads.length; i++) {
+                perThread.append(i == 0 ? "{" : ",{");
+                perThread.append("\"thread\":").append(i);
+                for (int field = 0; field < THREAD_FIELDS.length; field++) {
+                    perThread.append(",\"").append(THREAD_FIELDS[field])
+                        .append("\":").append(threads[i][field]);
+                    totals[field] += threads[i][field];
+                }
+                perThread.append('}');
+            }
+
+            // the rate over the last interval shows changes in throughput
+            // that the average over the run would hide
+            long subgraphs = totals[1];
+            long rate = now > lastTime
+                ? (subgraphs - lastSubgraphs) * 1000 / (now - lastTime) : 0;
+            lastSubgraphs = subgraphs;
+            lastTime = now;
+
+            line.append(",\"units\":").append(totals[0]);
+            line.append(",\"subgraphs\":").append(subgraphs);
+            line.append(",\"subgraphs_per_s\":").append(rate);
+            line.append(",\"patterns\":").append(totals[2]);
+            line.append(",\"busy_ms\":").append(totals[3]);
+            line.append(",\"threads\":[").append(perThread).append(']');
+        }
+
+        Labeler labeler = this.labeler;
+        if (labeler != null) {
+            line.append(",\"labeler\":{\"batches\":")
+                .append(labeler.getBatches());
+            line.append(",\"keys\":").append(labeler.getKeysSeen());
+            line.append(",\"labeled\":").append(labeler.getKeysLabeled());
+            line.append(",\"ms\":").append(labeler.getLabelMillis());
+            line.append('}');
+        }
+
+        line.append(",\"communication\":{");
+        synchronized (communication) {
+            boolean first = true;
+            for (Map.Entry<String, long[]> entry:communication.entrySet()) {
+                line.append(first ? "\"" : ",\"").append(entry.getKey())
+                    .append("\":{\"calls\":").append(entry.getValue()[0])
+                    .append(",\"bytes\":").append(entry.getValue()[1])
+                    .append('}');
+                first = false;
+            }
+        }
+        line.append("}}");
+
+        out.println(line);
+        out.flush();
+    }
+
+    // an OutputStream that only counts the bytes written to it
+    private static class CountingStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
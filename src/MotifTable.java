@@ -0,0 +1,233 @@
+// MotifTable.java
+//
+// Lookup table from every packed adjacency pattern of a small order (see
+// AdjacencyMatrix.toKey()) to a dense motif id, one per isomorphism class.
+// With a table, subgraphs can be counted by motif directly and the labeling
+// phase is skipped. There are 2^15 patterns for order 6 and 2^21 for order 7,
+// so tables are limited to MAX_ORDER. A table is built once per order with
+// the CanonicalLabeler, shared by every thread of the process, and cached
+// in the working directory so later runs (and other ranks) only read it.
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MotifTable {
+
+    public static final int MAX_ORDER = 7;
+
+    private static final MotifTable[] tables = new MotifTable[MAX_ORDER + 1];
+
+    // cache file options
+    private static final String filePrefix  = ".motif_table_";
+    private static final String filePostfix = ".bin";
+    private static final int MAGIC = 0x4d544231;  // "MTB1"
+
+    // labels the patterns in [from, to) with its own CanonicalLabeler
+    private static class BuildThread extends Thread {
+
+        private int order;
+        private long[] canonical;
+        private int from;
+        private int to;
+
+        public BuildThread(int order, long[] canonical, int from, int to) {
+            this.order = order;
+            this.canonical = canonical;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            CanonicalLabeler labeler = new CanonicalLabeler();
+            for (int key = from; key < to; key++) {
+                canonical[key] = labeler.canonicalKey(order, key);
+            }
+        }
+    }
+
+    private int order;
+    private short[] ids;              // pattern -> motif id
+    private long[] canonicalKeys;     // motif id -> canonical key
+
+    // returns the table for the given order, building it with nThreads
+    // threads the first time it is requested
+    public static synchronized MotifTable get(int order, int nThreads) {
+        if (order < 2 || order > MAX_ORDER) {
+            throw new IllegalArgumentException(
+                "Argument out of range (order must be between 2 and " +
+                MAX_ORDER + ").");
+        }
+        if (tables[order] == null) {
+            File file = new File(filePrefix + order + filePostfix);
+            MotifTable table = read(file, order);
+            if (table == null) {
+                table = new MotifTable(order, nThreads);
+                table.write(file);
+            }
+            tables[order] = table;
+        }
+        return tables[order];
+    }
+
+    private MotifTable(int order, short[] ids, long[] canonicalKeys) {
+        this.order = order;
+        this.ids = ids;
+        this.canonicalKeys = canonicalKeys;
+    }
+
+    private MotifTable(int order, int nThreads) {
+        this.order = order;
+        int patterns = 1 << ((order * (order - 1)) / 2);
+
+        long[] canonical = new long[patterns];
+        BuildThread[] threads = new BuildThread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            threads[i] = new BuildThread(order, canonical,
+                (int)((long)patterns * i / nThreads),
+                (int)((long)patterns * (i + 1) / nThreads));
+            threads[i].start();
+        }
+        for (int i = 0; i < nThreads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted exception thrown...");
+                e.printStackTrace();
+            }
+        }
+
+        // number the classes in ascending order of their canonical key, so
+        // every process assigns the same ids
+        long[] sorted = canonical.clone();
+        Arrays.sort(sorted);
+        int classes = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[classes++] = sorted[i];
+            }
+        }
+        canonicalKeys = Arrays.copyOf(sorted, classes);
+
+        ids = new short[patterns];
+        for (int key = 0; key < patterns; key++) {
+            ids[key] = (short)Arrays.binarySearch(canonicalKeys,
+                                                  canonical[key]);
+        }
+    }
+
+    // reads a cached table, returning null if it is missing or unusable
+    private static MotifTable read(File file, int order) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+            int patterns = 1 << ((order * (order - 1)) / 2);
+            if (in.readInt() != MAGIC || in.readInt() != order ||
+                in.readInt() != patterns) {
+                return null;
+            }
+            int classes = in.readInt();
+            if (classes < 1 || classes > patterns) {
+                return corrupt(file);
+            }
+            long[] canonicalKeys = new long[classes];
+            for (int i = 0; i < canonicalKeys.length; i++) {
+                canonicalKeys[i] = in.readLong();
+                if (i > 0 && canonicalKeys[i] <= canonicalKeys[i - 1]) {
+                    return corrupt(file);
+                }
+            }
+            short[] ids = new short[patterns];
+            for (int i = 0; i < patterns; i++) {
+                ids[i] = in.readShort();
+                if (ids[i] < 0 || ids[i] >= classes) {
+                    return corrupt(file);
+                }
+            }
+            return new MotifTable(order, ids, canonicalKeys);
+        } catch (IOException e) {
+            System.err.println("Unable to read motif table " + file +
+                ": " + e.getMessage());
+            return null;
+        } finally {
+            try { in.close(); } catch (Exception e) {}
+        }
+    }
+
+    // reports a cached table whose keys or ids are out of order or range,
+    // which is then built again
+    private static MotifTable corrupt(File file) {
+        System.err.println("Motif table " + file + " is corrupt, " +
+            "rebuilding it");
+        return null;
+    }
+
+    // writes the table to a temporary file that is then renamed, so
+    // concurrent readers never see a partial table. Failing to write the
+    // cache is not an error.
+    private void write(File file) {
+        File temp = null;
+        DataOutputStream out = null;
+        try {
+            temp = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+            out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(order);
+            out.writeInt(ids.length);
+            out.writeInt(canonicalKeys.length);
+            for (long key:canonicalKeys) {
+                out.writeLong(key);
+            }
+            for (short id:ids) {
+                out.writeShort(id);
+            }
+            out.close();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to cache motif table " + file +
+                ": " + e.getMessage());
+            try { out.close(); } catch (Exception ignored) {}
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    public int order() {
+        return order;
+    }
+
+    // the number of motif ids (isomorphism classes of this order)
+    public int size() {
+        return canonicalKeys.length;
+    }
+
+    public int getId(long key) {
+        return ids[(int)key];
+    }
+
+    public long getCanonicalKey(int id) {
+        return canonicalKeys[id];
+    }
+
+    // converts counts indexed by motif id to canonical graph6 label counts
+    public Map<String, Long> getLabels(long[] counts) {
+        Map<String, Long> labels = new HashMap<String, Long>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0) {
+                labels.put(AdjacencyMatrix.toGraph6(order, canonicalKeys[id]),
+                           counts[id]);
+            }
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,219 @@
+// MpiCommunicator.java
+//
+// A Communicator over mpiJava's COMM_WORLD, one rank per process. Large
+// arrays are broadcast in chunks of at most CHUNK elements; objects are
+// sent as MPI.OBJECT, which serializes them. This is the only class that
+// uses mpiJava, so runs with SharedMemoryCommunicator do not need it.
+
+import mpi.*;
+
+public class MpiCommunicator implements Communicator {
+
+    private static final int CHUNK = 1 << 24;  // elements per Bcast
+
+    private int rank;
+    private int size;
+
+    // starts the MPI library
+    public MpiCommunicator(String[] args) throws CommunicationException {
+        try {
+            MPI.Init(args);
+            rank = MPI.COMM_WORLD.Rank();
+            size = MPI.COMM_WORLD.Size();
+        } catch (MPIException e) {
+            throw failure("start MPI", e);
+        }
+    }
+
+    // stops the MPI library
+    public void finish() throws CommunicationException {
+        try {
+            MPI.Finalize();
+        } catch (MPIException e) {
+            throw failure("stop MPI", e);
+        }
+    }
+
+    public int rank() {
+        return rank;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] broadcast(int[] values, int root)
+        throws CommunicationException {
+        try {
+            int[] length = {rank == root ? values.length : 0};
+            MPI.COMM_WORLD.Bcast(length, 0, 1, MPI.INT, root);
+            if (rank != root) {
+                values = new int[length[0]];
+            }
+            for (int i = 0; i < values.length; i += CHUNK) {
+                MPI.COMM_WORLD.Bcast(values, i,
+                    Math.min(CHUNK, values.length - i), MPI.INT, root);
+            }
+            return values;
+        } catch (MPIException e) {
+            throw failure("broadcast", e);
+        }
+    }
+
+    public long[] broadcast(long[] values, int root)
+        throws CommunicationException {
+        try {
+            int[] length = {rank == root ? values.length : 0};
+            MPI.COMM_WORLD.Bcast(length, 0, 1, MPI.INT, root);
+            if (rank != root) {
+                values = new long[length[0]];
+            }
+            for (int i = 0; i < values.length; i += CHUNK) {
+                MPI.COMM_WORLD.Bcast(values, i,
+                    Math.min(CHUNK, values.length - i), MPI.LONG, root);
+            }
+            return values;
+        } catch (MPIException e) {
+            throw failure("broadcast", e);
+        }
+    }
+
+    public Object broadcastObject(Object value, int root)
+        throws CommunicationException {
+        try {
+            Object[] packet = mpiPacket(value);
+            MPI.COMM_WORLD.Bcast(packet, 0, 1, MPI.OBJECT, root);
+            return packet[0];
+        } catch (MPIException e) {
+            throw failure("broadcast", e);
+        }
+    }
+
+    public long[] gather(long[] values, int root)
+        throws CommunicationException {
+        try {
+            long[] all = new long[values.length * size];
+            MPI.COMM_WORLD.Gather(values, 0, values.length, MPI.LONG,
+                                  all   , 0, values.length, MPI.LONG, root);
+            return rank == root ? all : null;
+        } catch (MPIException e) {
+            throw failure("gather", e);
+        }
+    }
+
+    public int[] allGather(int[] values) throws CommunicationException {
+        try {
+            int[] lengths = lengths(values.length);
+            int[] displacements = displacements(lengths);
+            int[] all = new int[displacements[size]];
+            MPI.COMM_WORLD.Allgatherv(values, 0, values.length, MPI.INT,
+                all, 0, lengths, displacements, MPI.INT);
+            return all;
+        } catch (MPIException e) {
+            throw failure("gather", e);
+        }
+    }
+
+    public long[] allGather(long[] values) throws CommunicationException {
+        try {
+            int[] lengths = lengths(values.length);
+            int[] displacements = displacements(lengths);
+            long[] all = new long[displacements[size]];
+            MPI.COMM_WORLD.Allgatherv(values, 0, values.length, MPI.LONG,
+                all, 0, lengths, displacements, MPI.LONG);
+            return all;
+        } catch (MPIException e) {
+            throw failure("gather", e);
+        }
+    }
+
+    public void send(int[] values, int destination, int tag)
+        throws CommunicationException {
+        try {
+            MPI.COMM_WORLD.Send(values, 0, values.length, MPI.INT,
+                                destination, tag);
+        } catch (MPIException e) {
+            throw failure("send", e);
+        }
+    }
+
+    public int receive(int[] values, int source, int tag)
+        throws CommunicationException {
+        try {
+            Status status = MPI.COMM_WORLD.Recv(values, 0, values.length,
+                MPI.INT, source == ANY_SOURCE ? MPI.ANY_SOURCE : source, tag);
+            return status.source;
+        } catch (MPIException e) {
+            throw failure("receive", e);
+        }
+    }
+
+    public void sendObject(Object value, int destination, int tag)
+        throws CommunicationException {
+        try {
+            MPI.COMM_WORLD.Send(mpiPacket(value), 0, 1, MPI.OBJECT,
+                                destination, tag);
+        } catch (MPIException e) {
+            throw failure("send", e);
+        }
+    }
+
+    public Object receiveObject(int source, int tag)
+        throws CommunicationException {
+        try {
+            Object[] packet = new Object[1];
+            MPI.COMM_WORLD.Recv(packet, 0, 1, MPI.OBJECT,
+                source == ANY_SOURCE ? MPI.ANY_SOURCE : source, tag);
+            return packet[0];
+        } catch (MPIException e) {
+            throw failure("receive", e);
+        }
+    }
+
+    public void barrier() throws CommunicationException {
+        try {
+            MPI.COMM_WORLD.Barrier();
+        } catch (MPIException e) {
+            throw failure("synchronize", e);
+        }
+    }
+
+    public void abort(int code) {
+        try {
+            MPI.COMM_WORLD.Abort(code);
+        } catch (MPIException e) {
+            System.exit(code);
+        }
+    }
+
+    // the array length of every rank
+    private int[] lengths(int length) throws MPIException {
+        int[] lengths = new int[size];
+        int[] own = {length};
+        MPI.COMM_WORLD.Allgather(own    , 0, 1, MPI.INT,
+                                 lengths, 0, 1, MPI.INT);
+        return lengths;
+    }
+
+    // where each rank's array starts, and the total length at the end
+    private int[] displacements(int[] lengths) {
+        int[] displacements = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            displacements[i + 1] = displacements[i] + lengths[i];
+        }
+        return displacements;
+    }
+
+    private CommunicationException failure(String operation, MPIException e) {
+        return new CommunicationException(
+            "Unable to " + operation + " on rank " + rank + ": " +
+            e.getMessage(), e);
+    }
+
+    // creates an object array container, or "packet", for a single object
+    private static Object[] mpiPacket(Object obj) {
+        Object[] packet = new Object[1];
+        packet[0] = obj;
+        return packet;
+    }
+}
@@ -0,0 +1,381 @@
+// Options.java
+//
+// Command line options of the program:
+//
+//   nodes threads_per_node data_file motif_size [flags]
+//
+// flags:
+//   --show-results   print the canonical label counts
+//   --labelg         label subgraphs with the external labelg program
+//                    instead of the built-in canonical labeler
+//   --label-cache=FILE
+//                    keep canonical labels in a persistent cache file
+//   --label-cache-size=N
+//                    number of entries of a new cache file
+//   --dynamic[=CHUNK]
+//                    hand out root nodes to the ranks on demand, in chunks
+//                    of CHUNK roots, instead of a fixed share per rank
+//   --order=NAME     renumber the nodes after parsing: none, degree,
+//                    degeneracy or rcm (see VertexOrder)
+//   --seed=N         seed of the random node numbering used when parsing
+//   --no-shuffle     number the nodes in order of appearance instead
+//   --random=N       also count N random graphs with the same degrees and
+//                    print the significance of each label
+//   --sample=P1,...,PK
+//                    RAND-ESU: add the node at depth d of the ESU tree with
+//                    probability Pd and estimate the counts (see Sampling)
+//   --checkpoint=DIR save the completed work of each thread in DIR
+//   --checkpoint-interval=SECONDS
+//                    how often each thread saves its work
+//   --resume         skip the work saved in the checkpoint directory
+//   --metrics=FILE   write progress and performance counters of each rank
+//                    to FILE.<rank> as JSON lines (see Metrics)
+//   --metrics-interval=SECONDS
+//                    how often the counters are written
+//   --all-sizes      count every motif size from 3 up to motif_size in
+//                    the same pass
+//   --local-ranks=N  run N ranks as threads of this process instead of
+//                    with MPI (see SharedMemoryCommunicator)
+//   --memory-limit=SIZE
+//                    keep the raw subgraph counts of each rank within about
+//                    SIZE bytes (with a K, M or G suffix), spilling the rest
+//                    to disk (see CountRuns)
+//   --spill-dir=DIR  where spilled counts are written (the temporary
+//                    directory by default)
+
+public class Options {
+
+    public static final String USAGE =
+        "usage: Driver nodes threads_per_node data_file motif_size " +
+        "[--show-results] [--labelg] [--label-cache=FILE] " +
+        "[--label-cache-size=N] [--dynamic[=CHUNK]] " +
+        "[--order=none|degree|degeneracy|rcm] [--seed=N] [--no-shuffle] " +
+        "[--random=N] [--sample=P1,...,PK] [--checkpoint=DIR] " +
+        "[--checkpoint-interval=SECONDS] [--resume] [--metrics=FILE] " +
+        "[--metrics-interval=SECONDS] [--all-sizes] [--local-ranks=N] " +
+        "[--memory-limit=SIZE] [--spill-dir=DIR]";
+
+    public static final int DEFAULT_CHUNK_SIZE = 32;
+
+    // the smallest size --all-sizes counts
+    private static final int ALL_SIZES_MINIMUM = 3;
+
+    // the smallest --memory-limit
+    private static final long MINIMUM_MEMORY_LIMIT = 1 << 20;
+
+    private int nodes;
+    private int threads;
+    private String filename;
+    private int motifSize;
+    private boolean showResults;
+    private boolean useLabelg;
+    private String labelCache;
+    private int labelCacheSize = LabelCache.DEFAULT_CAPACITY;
+    private int chunkSize;
+    private String order = VertexOrder.NONE;
+    private boolean shuffle = true;
+    private Long seed;
+    private int randomGraphs;
+    private double[] sampling;
+    private String checkpoint;
+    private int checkpointInterval = Checkpoint.DEFAULT_INTERVAL;
+    private boolean resume;
+    private String metrics;
+    private int metricsInterval = Metrics.DEFAULT_INTERVAL;
+    private int localRanks;
+    private boolean allSizes;
+    private long memoryLimit;
+    private String spillDirectory = System.getProperty("java.io.tmpdir");
+
+    private Options() {
+    }
+
+    // parses the arguments, throwing IllegalArgumentException with a
+    // description of the first invalid argument
+    public static Options parse(String[] args) {
+        if (args.length < 4) {
+            throw new IllegalArgumentException("missing arguments");
+        }
+
+        Options options = new Options();
+        options.nodes = parseInt(args[0], "nodes");
+        options.threads = parseInt(args[1], "threads_per_node");
+        options.filename = args[2];
+        options.motifSize = parseInt(args[3], "motif_size");
+
+        if (options.threads < 1) {
+            throw new IllegalArgumentException(
+                "threads_per_node must be at least 1");
+        }
+
+        // subgraphs are counted by their packed adjacency matrix, which
+        // limits the motif size
+        if (options.motifSize < 2 ||
+            options.motifSize > AdjacencyMatrix.MAX_KEY_ORDER) {
+            throw new IllegalArgumentException(
+                "motif_size must be between 2 and " +
+                AdjacencyMatrix.MAX_KEY_ORDER);
+        }
+
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].equals("--show-results")) {
+                options.showResults = true;
+            } else if (args[i].equals("--labelg")) {
+                options.useLabelg = true;
+            } else if (args[i].startsWith("--label-cache=")) {
+                options.labelCache = valueOf(args[i]);
+            } else if (args[i].startsWith("--label-cache-size=")) {
+                options.labelCacheSize =
+                    parseInt(valueOf(args[i]), "--label-cache-size");
+                if (options.labelCacheSize < 1) {
+                    throw new IllegalArgumentException(
+                        "--label-cache-size must be at least 1");
+                }
+            } else if (args[i].equals("--dynamic")) {
+                options.chunkSize = DEFAULT_CHUNK_SIZE;
+            } else if (args[i].startsWith("--dynamic=")) {
+                options.chunkSize = parseInt(valueOf(args[i]), "--dynamic");
+                if (options.chunkSize < 1) {
+                    throw new IllegalArgumentException(
+                        "--dynamic chunk size must be at least 1");
+                }
+            } else if (args[i].startsWith("--order=")) {
+                options.order = valueOf(args[i]);
+                if (!VertexOrder.isValid(options.order)) {
+                    throw new IllegalArgumentException(
+                        "unknown node order '" + options.order + "'");
+                }
+            } else if (args[i].startsWith("--seed=")) {
+                options.seed = parseLong(valueOf(args[i]), "--seed");
+            } else if (args[i].equals("--no-shuffle")) {
+                options.shuffle = false;
+            } else if (args[i].startsWith("--sample=")) {
+                options.sampling =
+                    Sampling.parse(valueOf(args[i]), options.motifSize);
+            } else if (args[i].startsWith("--random=")) {
+                options.randomGraphs =
+                    parseInt(valueOf(args[i]), "--random");
+                if (options.randomGraphs < 0) {
+                    throw new IllegalArgumentException(
+                        "--random must not be negative");
+                }
+            } else if (args[i].startsWith("--checkpoint=")) {
+                options.checkpoint = valueOf(args[i]);
+            } else if (args[i].startsWith("--checkpoint-interval=")) {
+                options.checkpointInterval = parseInt(valueOf(args[i]),
+                                                      "--checkpoint-interval");
+                if (options.checkpointInterval < 0) {
+                    throw new IllegalArgumentException(
+                        "--checkpoint-interval must not be negative");
+                }
+            } else if (args[i].equals("--resume")) {
+                options.resume = true;
+            } else if (args[i].startsWith("--metrics=")) {
+                options.metrics = valueOf(args[i]);
+            } else if (args[i].startsWith("--metrics-interval=")) {
+                options.metricsInterval = parseInt(valueOf(args[i]),
+                                                   "--metrics-interval");
+                if (options.metricsInterval < 1) {
+                    throw new IllegalArgumentException(
+                        "--metrics-interval must be at least 1");
+                }
+            } else if (args[i].equals("--all-sizes")) {
+                options.allSizes = true;
+            } else if (args[i].startsWith("--local-ranks=")) {
+                options.localRanks =
+                    parseInt(valueOf(args[i]), "--local-ranks");
+                if (options.localRanks < 1) {
+                    throw new IllegalArgumentException(
+                        "--local-ranks must be at least 1");
+                }
+            } else if (args[i].startsWith("--memory-limit=")) {
+                options.memoryLimit =
+                    parseSize(valueOf(args[i]), "--memory-limit");
+                if (options.memoryLimit < MINIMUM_MEMORY_LIMIT) {
+                    throw new IllegalArgumentException(
+                        "--memory-limit must be at least 1M");
+                }
+            } else if (args[i].startsWith("--spill-dir=")) {
+                options.spillDirectory = valueOf(args[i]);
+            } else {
+                throw new IllegalArgumentException(
+                    "unknown option '" + args[i] + "'");
+            }
+        }
+        // the sizes would need an estimate (and probability) each
+        if (options.allSizes && options.sampling != null) {
+            throw new IllegalArgumentException(
+                "--all-sizes cannot be combined with --sample");
+        }
+        // spilled counts carry no sums of squares (see Sampling) and are
+        // not saved in checkpoints
+        if (options.memoryLimit > 0 && options.sampling != null) {
+            throw new IllegalArgumentException(
+                "--memory-limit cannot be combined with --sample");
+        }
+        if (options.memoryLimit > 0 && options.checkpoint != null) {
+            throw new IllegalArgumentException(
+                "--memory-limit cannot be combined with --checkpoint");
+        }
+        if (options.resume && options.checkpoint == null) {
+            throw new IllegalArgumentException(
+                "--resume needs a --checkpoint directory");
+        }
+        return options;
+    }
+
+    // the part of a "--name=value" argument after the '='
+    private static String valueOf(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                name + " must be an integer, not '" + value + "'");
+        }
+    }
+
+    private static long parseLong(String value, String name) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                name + " must be an integer, not '" + value + "'");
+        }
+    }
+
+    // a number of bytes, optionally followed by K, M or G
+    private static long parseSize(String value, String name) {
+        long unit = 1;
+        String digits = value;
+        if (!value.isEmpty()) {
+            int suffix = "KMG".indexOf(
+                Character.toUpperCase(value.charAt(value.length() - 1)));
+            if (suffix >= 0) {
+                unit = 1L << (10 * (suffix + 1));
+                digits = value.substring(0, value.length() - 1);
+            }
+        }
+        try {
+            return Long.parseLong(digits) * unit;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                name + " must be a size such as 512M or 4G, not '" +
+                value + "'");
+        }
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public int getMotifSize() {
+        return motifSize;
+    }
+
+    // the smallest motif size counted: 3 with --all-sizes (or the motif
+    // size, if it is smaller), otherwise the motif size
+    public int getMinimumSize() {
+        return allSizes ? Math.min(ALL_SIZES_MINIMUM, motifSize) : motifSize;
+    }
+
+    public boolean getShowResults() {
+        return showResults;
+    }
+
+    public boolean getUseLabelg() {
+        return useLabelg;
+    }
+
+    // the label cache file, or null if none is used
+    public String getLabelCache() {
+        return labelCache;
+    }
+
+    public int getLabelCacheSize() {
+        return labelCacheSize;
+    }
+
+    // the name of the node ordering (see VertexOrder)
+    public String getOrder() {
+        return order;
+    }
+
+    // false if the nodes keep the order in which they appear in the file
+    public boolean getShuffle() {
+        return shuffle;
+    }
+
+    // the seed of the node shuffle, or null for a random one
+    public Long getSeed() {
+        return seed;
+    }
+
+    // the number of random graphs to compare the counts with (0 if none)
+    public int getRandomGraphs() {
+        return randomGraphs;
+    }
+
+    // the RAND-ESU probability of each depth, or null to count every
+    // subgraph
+    public double[] getSampling() {
+        return sampling;
+    }
+
+    // the checkpoint directory, or null if no checkpoints are written
+    public String getCheckpoint() {
+        return checkpoint;
+    }
+
+    // seconds between the checkpoints of a thread
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public boolean getResume() {
+        return resume;
+    }
+
+    // the prefix of the metrics files, or null if none are written
+    public String getMetrics() {
+        return metrics;
+    }
+
+    // seconds between the lines of a metrics file
+    public int getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    // the number of ranks to run in this process, or 0 to run with MPI
+    public int getLocalRanks() {
+        return localRanks;
+    }
+
+    // the bytes the raw counts of a rank may take before they are spilled
+    // to disk, or 0 to keep them in memory
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    // the directory of the spilled counts
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    // the number of roots per request in dynamic mode, or 0 if the roots
+    // are distributed statically
+    public int getChunkSize() {
+        return chunkSize;
+    }
+}
@@ -0,0 +1,145 @@
+// RootDispenser.java
+//
+// Hands out chunks of root node indexes to the ranks on demand, so ranks
+// that finish early keep taking work instead of waiting at the barrier.
+// The master rank owns the counter: its own threads take chunks directly,
+// and its main thread answers the requests of the other ranks. On the
+// other ranks the main thread requests chunks ahead of the pool's threads
+// and queues them, so the threads never communicate themselves. Each rank
+// has at most one request outstanding, so a rank receives exactly one
+// "no more roots" reply, after which the master stops answering it.
+//
+// Only the thread that calls run() communicates, so the communicator does
+// not have to allow calls from several threads.
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class RootDispenser {
+
+    private static final int REQUEST_TAG = 1;
+    private static final int CHUNK_TAG = 2;
+    private static final int NO_MORE_ROOTS = -1;
+
+    // how often the main thread checks that the threads still take chunks
+    private static final long WAIT_MILLIS = 100;
+
+    private Communicator communicator;
+    private int roots;
+    private int chunkSize;
+    private int master;
+    private int rank;
+    private int size;
+
+    private int nextRoot;                   // master only
+    private BlockingQueue<Integer> chunks;  // other ranks only
+    private volatile boolean stopped;
+
+    // 'prefetch' is the number of chunks the other ranks queue for their
+    // threads, usually the number of threads
+    public RootDispenser(Communicator communicator, int roots,
+                         int chunkSize, int master, int prefetch) {
+        this.communicator = communicator;
+        this.roots = roots;
+        this.chunkSize = chunkSize;
+        this.master = master;
+        this.rank = communicator.rank();
+        this.size = communicator.size();
+        this.chunks = new ArrayBlockingQueue<Integer>(Math.max(prefetch, 1));
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // does all the communication of the rank, on the calling thread, until
+    // the rank (or on the master, every other rank) has been told there
+    // are no more roots; the threads calling next() run meanwhile
+    public void run() throws CommunicationException {
+        if (rank == master) {
+            serve();
+            return;
+        }
+
+        boolean done = false;
+        try {
+            int[] buffer = new int[1];
+            do {
+                communicator.send(buffer, master, REQUEST_TAG);
+                communicator.receive(buffer, master, CHUNK_TAG);
+                queue(buffer[0]);
+            } while (buffer[0] != NO_MORE_ROOTS);
+            done = true;
+        } finally {
+            if (!done) {
+                // let the threads finish, as requesting failed
+                chunks.clear();
+                chunks.offer(NO_MORE_ROOTS);
+            }
+        }
+    }
+
+    // tells run() that the threads no longer take chunks, so it drops
+    // the rest instead of waiting for room in the queue
+    public void stop() {
+        stopped = true;
+    }
+
+    // returns the first root of the next chunk, or -1 if all roots have
+    // been handed out; called by the pool's threads
+    public int next() {
+        if (rank == master) {
+            return take();
+        }
+        try {
+            int first = chunks.take();
+            if (first == NO_MORE_ROOTS) {
+                // leave it for the other threads
+                chunks.offer(NO_MORE_ROOTS);
+            }
+            return first;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while waiting for roots", e);
+        }
+    }
+
+    private synchronized int take() {
+        if (nextRoot >= roots) {
+            return NO_MORE_ROOTS;
+        }
+        int first = nextRoot;
+        nextRoot += chunkSize;
+        return first;
+    }
+
+    // waits for room in the queue, and adds a chunk to it
+    private void queue(int first) {
+        try {
+            while (!stopped &&
+                   !chunks.offer(first, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                "Interrupted while queueing roots", e);
+        }
+    }
+
+    private void serve() throws CommunicationException {
+        int remaining = size - 1;
+        int[] request = new int[1];
+        int[] reply = new int[1];
+        while (remaining > 0) {
+            int source = communicator.receive(
+                request, Communicator.ANY_SOURCE, REQUEST_TAG);
+            reply[0] = take();
+            if (reply[0] == NO_MORE_ROOTS) {
+                remaining--;
+            }
+            communicator.send(reply, source, CHUNK_TAG);
+        }
+    }
+}
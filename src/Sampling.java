@@ -0,0 +1,166 @@
+// Sampling.java
+//
+// Estimates for RAND-ESU runs (see Enumerator.setSampling()). Each subgraph
+// is counted with probability q = p[0] * ... * p[k-1], so a label counted c
+// times is estimated to occur c / q times. Concentrations (the share of a
+// label among all subgraphs) are estimated by the label's share of the
+// sampled subgraphs, where q cancels out.
+//
+// Subgraphs below the same node of the ESU tree are sampled together, so
+// they are not independent. The variance is that of the sampling design:
+// every node at depth d (the root being depth 1) is kept with probability
+// p_d once its parent is, independently. For a label L, the estimate
+// sums, over the sampled nodes c of every depth d, the estimate of the
+// subgraphs of L below c; its variance has an unbiased estimate of
+//
+//   v(L) = sum over d of (1 - p_d) / (q * p_d * ... * p_k) * S_d(L)
+//
+// where S_d(L) is the sum of n_c(L)^2 over the sampled nodes c at depth
+// d, and n_c(L) the number of sampled subgraphs of L below c (at depth k,
+// n_c(L) is 1 for each sampled subgraph of L, so S_k(L) is its count). It
+// is 0 when nothing is left to chance, and only depths with p_d < 1 need
+// their squares collected (see SquareSums). A label's concentration is the
+// ratio of two estimates, whose variance is approximated by linearizing
+// it: that of the label's count minus the concentration times the total,
+// for which the products n_c(L) * n_c are needed as well. The confidence
+// intervals assume the estimates are normally distributed.
+//
+// The sums are counted as tables like the counts (see sums()): sum 0 is
+// the counts, then for each depth from 1 to k - 1 its squares S_d and its
+// products.
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class Sampling {
+
+    // the quantile of the standard normal distribution for a two-sided
+    // 95% interval
+    private static final double Z_95 = 1.959963985;
+
+    // the number of sums counted for motifs of the given size
+    public static int sums(int motifSize) {
+        return 2 * motifSize - 1;
+    }
+
+    // the sum of the squares S_d, for a depth from 1 to k - 1
+    public static int squares(int depth) {
+        return (2 * depth) - 1;
+    }
+
+    // the sum of the products n_c(L) * n_c, for a depth from 1 to k - 1
+    public static int products(int depth) {
+        return 2 * depth;
+    }
+
+    // parses a comma separated list of one probability per depth,
+    // throwing IllegalArgumentException if it is not valid
+    public static double[] parse(String value, int motifSize) {
+        String[] parts = value.split(",");
+        if (parts.length != motifSize) {
+            throw new IllegalArgumentException("--sample needs one " +
+                "probability per motif node (" + motifSize + "), not " +
+                parts.length);
+        }
+        double[] probabilities = new double[motifSize];
+        for (int i = 0; i < motifSize; i++) {
+            try {
+                probabilities[i] = Double.parseDouble(parts[i]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                    "--sample probabilities must be numbers, not '" +
+                    parts[i] + "'");
+            }
+            if (!(probabilities[i] > 0 && probabilities[i] <= 1)) {
+                throw new IllegalArgumentException(
+                    "--sample probabilities must be in (0, 1]");
+            }
+        }
+        return probabilities;
+    }
+
+    // the probability that a subgraph is counted
+    public static double fraction(double[] probabilities) {
+        double fraction = 1;
+        for (double probability:probabilities) {
+            fraction *= probability;
+        }
+        return fraction;
+    }
+
+    // returns the counts (sum 0) of each label
+    public static Map<String, Long> totals(Map<String, long[]> sums) {
+        Map<String, Long> totals = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> entry:sums.entrySet()) {
+            totals.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return totals;
+    }
+
+    // prints the estimated count and concentration of each sampled label,
+    // with their 95% confidence intervals, given the sums of every label
+    public static void print(Map<String, long[]> sums,
+                             double[] probabilities) {
+        int motifSize = probabilities.length;
+        double q = fraction(probabilities);
+
+        // the factor of S_d in v(L), and the sums of all labels
+        double[] factors = new double[motifSize + 1];
+        double below = 1;
+        for (int depth = motifSize; depth >= 1; depth--) {
+            double p = probabilities[depth - 1];
+            below *= p;
+            factors[depth] = (1 - p) / (q * below);
+        }
+        long total = 0;
+        double[] totalSquares = new double[motifSize];
+        for (long[] values:sums.values()) {
+            total += values[0];
+            for (int depth = 1; depth < motifSize; depth++) {
+                totalSquares[depth] += values[products(depth)];
+            }
+        }
+        double totalEstimate = total / q;
+        System.out.println("Sampled " + total + " subgraphs (expected " +
+            "fraction " + format(q) + "), estimated total " +
+            format(totalEstimate));
+
+        System.out.println("Label\tEstimate\tStdError\tCI low\tCI high\t" +
+                           "Concentration\tStdError\tCI low\tCI high");
+        for (String label:new TreeSet<String>(sums.keySet())) {
+            long[] values = sums.get(label);
+            long count = values[0];
+            double estimate = count / q;
+            double share = (double)count / total;
+
+            // at depth k, every n_c(L) and n_c is 1 or 0
+            double variance = factors[motifSize] * count;
+            double shareVariance = factors[motifSize] *
+                (count - (2 * share * count) + (share * share * total));
+            for (int depth = 1; depth < motifSize; depth++) {
+                double squares = values[squares(depth)];
+                double products = values[products(depth)];
+                variance += factors[depth] * squares;
+                shareVariance += factors[depth] * (squares -
+                    (2 * share * products) +
+                    (share * share * totalSquares[depth]));
+            }
+            double error = Math.sqrt(variance);
+            double shareError =
+                Math.sqrt(Math.max(0, shareVariance)) / totalEstimate;
+
+            System.out.println(label + "\t" +
+                format(estimate) + "\t" + format(error) + "\t" +
+                format(Math.max(0, estimate - (Z_95 * error))) + "\t" +
+                format(estimate + (Z_95 * error)) + "\t" +
+                format(share) + "\t" + format(shareError) + "\t" +
+                format(Math.max(0, share - (Z_95 * shareError))) + "\t" +
+                format(Math.min(1, share + (Z_95 * shareError))));
+        }
+    }
+
+    private static String format(double value) {
+        return String.format("%.6g", value);
+    }
+}
@@ -0,0 +1,225 @@
+// SharedMemoryCommunicator.java
+//
+// A Communicator for ranks that run as threads of one JVM (see
+// Driver's --local-ranks), so the distributed code paths can be run and
+// measured on a single machine without MPI. Nothing is copied or
+// serialized: collective operations hand every rank the arrays and
+// objects of the others, and sendObject() passes the object itself. Only
+// send() copies its array, since senders reuse their buffers.
+//
+// A collective operation is an exchange: every rank puts its contribution
+// in its slot and waits for the others, reads the slots it needs, and waits
+// again so no slot is overwritten before everyone has read it. Messages
+// wait in the mailbox of their destination until they are received.
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class SharedMemoryCommunicator implements Communicator {
+
+    // the state shared by the ranks of a run
+    private static class World {
+        private CyclicBarrier barrier;
+        private Object[] slots;
+        private List<LinkedList<Message>> mailboxes;
+
+        public World(int size) {
+            barrier = new CyclicBarrier(size);
+            slots = new Object[size];
+            mailboxes = new ArrayList<LinkedList<Message>>(size);
+            for (int i = 0; i < size; i++) {
+                mailboxes.add(new LinkedList<Message>());
+            }
+        }
+    }
+
+    private static class Message {
+        private int source;
+        private int tag;
+        private Object value;
+
+        public Message(int source, int tag, Object value) {
+            this.source = source;
+            this.tag = tag;
+            this.value = value;
+        }
+    }
+
+    private World world;
+    private int rank;
+
+    private SharedMemoryCommunicator(World world, int rank) {
+        this.world = world;
+        this.rank = rank;
+    }
+
+    // the communicators of 'size' ranks, one for each rank's thread
+    public static SharedMemoryCommunicator[] create(int size) {
+        World world = new World(size);
+        SharedMemoryCommunicator[] ranks = new SharedMemoryCommunicator[size];
+        for (int i = 0; i < size; i++) {
+            ranks[i] = new SharedMemoryCommunicator(world, i);
+        }
+        return ranks;
+    }
+
+    public int rank() {
+        return rank;
+    }
+
+    public int size() {
+        return world.slots.length;
+    }
+
+    public int[] broadcast(int[] values, int root)
+        throws CommunicationException {
+        return (int[])exchange(values)[root];
+    }
+
+    public long[] broadcast(long[] values, int root)
+        throws CommunicationException {
+        return (long[])exchange(values)[root];
+    }
+
+    public Object broadcastObject(Object value, int root)
+        throws CommunicationException {
+        return exchange(value)[root];
+    }
+
+    public long[] gather(long[] values, int root)
+        throws CommunicationException {
+        Object[] all = exchange(values);
+        if (rank != root) {
+            return null;
+        }
+        long[] gathered = new long[values.length * all.length];
+        for (int i = 0; i < all.length; i++) {
+            System.arraycopy((long[])all[i], 0, gathered,
+                             i * values.length, values.length);
+        }
+        return gathered;
+    }
+
+    public int[] allGather(int[] values) throws CommunicationException {
+        Object[] all = exchange(values);
+        int length = 0;
+        for (Object array:all) {
+            length += ((int[])array).length;
+        }
+        int[] gathered = new int[length];
+        int start = 0;
+        for (Object array:all) {
+            int[] part = (int[])array;
+            System.arraycopy(part, 0, gathered, start, part.length);
+            start += part.length;
+        }
+        return gathered;
+    }
+
+    public long[] allGather(long[] values) throws CommunicationException {
+        Object[] all = exchange(values);
+        int length = 0;
+        for (Object array:all) {
+            length += ((long[])array).length;
+        }
+        long[] gathered = new long[length];
+        int start = 0;
+        for (Object array:all) {
+            long[] part = (long[])array;
+            System.arraycopy(part, 0, gathered, start, part.length);
+            start += part.length;
+        }
+        return gathered;
+    }
+
+    public void send(int[] values, int destination, int tag) {
+        post(destination, tag, values.clone());
+    }
+
+    public int receive(int[] values, int source, int tag)
+        throws CommunicationException {
+        Message message = take(source, tag);
+        int[] received = (int[])message.value;
+        System.arraycopy(received, 0, values, 0,
+                         Math.min(received.length, values.length));
+        return message.source;
+    }
+
+    public void sendObject(Object value, int destination, int tag) {
+        post(destination, tag, value);
+    }
+
+    public Object receiveObject(int source, int tag)
+        throws CommunicationException {
+        return take(source, tag).value;
+    }
+
+    public void barrier() throws CommunicationException {
+        await();
+    }
+
+    // the other ranks share the process, so they end with it
+    public void abort(int code) {
+        System.exit(code);
+    }
+
+    // returns the contributions of all ranks, by rank
+    private Object[] exchange(Object contribution)
+        throws CommunicationException {
+        world.slots[rank] = contribution;
+        await();
+        Object[] all = world.slots.clone();
+        await();
+        return all;
+    }
+
+    private void await() throws CommunicationException {
+        try {
+            world.barrier.await();
+        } catch (InterruptedException e) {
+            throw new CommunicationException(
+                "Interrupted while waiting on rank " + rank, e);
+        } catch (BrokenBarrierException e) {
+            throw new CommunicationException(
+                "Another rank failed while rank " + rank + " was waiting",
+                e);
+        }
+    }
+
+    private void post(int destination, int tag, Object value) {
+        LinkedList<Message> mailbox = world.mailboxes.get(destination);
+        synchronized (mailbox) {
+            mailbox.add(new Message(rank, tag, value));
+            mailbox.notifyAll();
+        }
+    }
+
+    // removes the first message from 'source' with the tag, waiting for
+    // one if there is none yet
+    private Message take(int source, int tag) throws CommunicationException {
+        LinkedList<Message> mailbox = world.mailboxes.get(rank);
+        synchronized (mailbox) {
+            while (true) {
+                Iterator<Message> iter = mailbox.iterator();
+                while (iter.hasNext()) {
+                    Message message = iter.next();
+                    if (message.tag == tag &&
+                        (source == ANY_SOURCE || message.source == source)) {
+                        iter.remove();
+                        return message;
+                    }
+                }
+                try {
+                    mailbox.wait();
+                } catch (InterruptedException e) {
+                    throw new CommunicationException(
+                        "Interrupted while receiving on rank " + rank, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+// Significance.java
+//
+// Accumulates the label counts of random graphs (see EdgeSwitcher) and
+// compares them with the counts of the real graph. For each label it keeps
+// the sum and the sum of squares of its counts, and the number of random
+// graphs in which it occurs at least as often as in the real graph, which
+// gives the mean, the standard deviation, the Z-score
+// (real - mean) / deviation and the empirical p-value of the label.
+//
+// Instances are sent between ranks, so partial results can be merged.
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class Significance implements java.io.Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // per label: sum of counts, sum of squared counts, and the number of
+    // random graphs counting it at least as often as the real graph
+    private Map<String, double[]> statistics;
+    private int graphs;
+
+    public Significance() {
+        statistics = new HashMap<String, double[]>();
+    }
+
+    // adds the label counts of one random graph
+    public void add(Map<String, Long> random, Map<String, Long> real) {
+        for (Map.Entry<String, Long> entry:random.entrySet()) {
+            double count = entry.getValue();
+            double[] values = statistics.get(entry.getKey());
+            if (values == null) {
+                values = new double[3];
+                statistics.put(entry.getKey(), values);
+            }
+            values[0] += count;
+            values[1] += count * count;
+            Long realCount = real.get(entry.getKey());
+            if (realCount == null || entry.getValue() >= realCount) {
+                values[2]++;
+            }
+        }
+        graphs++;
+    }
+
+    // adds the random graphs of another instance
+    public void merge(Significance other) {
+        for (Map.Entry<String, double[]> entry:other.statistics.entrySet()) {
+            double[] values = statistics.get(entry.getKey());
+            if (values == null) {
+                statistics.put(entry.getKey(), entry.getValue());
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] += entry.getValue()[i];
+                }
+            }
+        }
+        graphs += other.graphs;
+    }
+
+    public int getGraphs() {
+        return graphs;
+    }
+
+    // prints the statistics of every label seen in the real or the random
+    // graphs, with the counts (and their mean and deviation) multiplied by
+    // 'scale', which leaves the Z-scores and p-values unchanged
+    public void print(Map<String, Long> real, double scale) {
+        TreeSet<String> labels = new TreeSet<String>(real.keySet());
+        labels.addAll(statistics.keySet());
+
+        System.out.println("Label\tFrequency\tMean\tStdDev\tZ-score\tp-value");
+        for (String label:labels) {
+            long count = real.containsKey(label) ? real.get(label) : 0;
+            double[] values = statistics.get(label);
+            if (values == null) {
+                values = new double[3];
+            }
+
+            double mean = values[0] / graphs;
+            double variance = 0;
+            if (graphs > 1) {
+                variance = Math.max(0,
+                    (values[1] - (graphs * mean * mean)) / (graphs - 1));
+            }
+            double deviation = Math.sqrt(variance);
+
+            // a label missing from a random graph was counted 0 times there,
+            // which is at least as often only if the real count is 0 too
+            double atLeast = count == 0 ? graphs : values[2];
+
+            String zScore = deviation > 0
+                ? format((count - mean) / deviation) : "n/a";
+            System.out.println(label + "\t" + format(count * scale) + "\t" +
+                format(mean * scale) + "\t" + format(deviation * scale) +
+                "\t" + zScore + "\t" + format(atLeast / graphs));
+        }
+    }
+
+    private static String format(double value) {
+        return String.format("%.4f", value);
+    }
+}
@@ -0,0 +1,108 @@
+// SquareSums.java
+//
+// Collects the sums an Enumerator needs to estimate the variance of its
+// RAND-ESU counts (see Sampling). For every sampled node c of the ESU tree
+// at a depth d whose probability is below 1, let n_c(L) be the number of
+// sampled subgraphs of label L below c and n_c the number of all of them;
+// then n_c(L)^2 is added to the squares of L at depth d and n_c(L) * n_c to
+// its products (see Sampling.squares() and Sampling.products()). Depths
+// sampled with probability 1 add nothing to the variance and are skipped.
+//
+// Labels are the ids the Enumerator passes for each subgraph (motif ids or
+// canonical keys). The counts below the current node of each depth are
+// kept until the node is left; they are then added to the sums and to the
+// counts of the closest shallower depth that is tracked, so a subgraph is
+// only counted once, at the deepest one.
+
+import java.util.Arrays;
+
+public class SquareSums {
+
+    private boolean[] tracked;     // by depth, 1 to order - 1
+    private int[] parent;          // the closest shallower tracked depth,
+                                   // 0 if there is none
+    private int deepest;           // 0 if no depth is tracked
+
+    // the counts by label below the current node of each depth, the labels
+    // among them, and their total
+    private LongCountMap[] below;
+    private long[][] labels;
+    private int[] labelCount;
+    private long[] total;
+
+    // the Enumerator's sums, by label (null without a MotifTable) or by
+    // motif id
+    private LongCountMap[] sums;
+    private long[][] motifSums;
+
+    public SquareSums(double[] probabilities, LongCountMap[] sums,
+                      long[][] motifSums) {
+        int order = probabilities.length;
+        this.sums = sums;
+        this.motifSums = motifSums;
+        tracked = new boolean[order];
+        parent = new int[order];
+        below = new LongCountMap[order];
+        labels = new long[order][];
+        labelCount = new int[order];
+        total = new long[order];
+        for (int depth = 1; depth < order; depth++) {
+            parent[depth] = deepest;
+            if (probabilities[depth - 1] < 1) {
+                tracked[depth] = true;
+                deepest = depth;
+                below[depth] = new LongCountMap();
+                labels[depth] = new long[16];
+            }
+        }
+    }
+
+    // true if the nodes of a depth must be left with leave()
+    public boolean tracks(int depth) {
+        return tracked[depth];
+    }
+
+    // counts a sampled subgraph of a label
+    public void add(long label) {
+        if (deepest > 0) {
+            count(deepest, label, 1);
+        }
+    }
+
+    // adds the counts below the node of a tracked depth that is left to
+    // the sums
+    public void leave(int depth) {
+        int up = parent[depth];
+        long all = total[depth];
+        for (int i = 0; i < labelCount[depth]; i++) {
+            long label = labels[depth][i];
+            long count = below[depth].remove(label);
+            addSum(Sampling.squares(depth), label, count * count);
+            addSum(Sampling.products(depth), label, count * all);
+            if (up > 0) {
+                count(up, label, count);
+            }
+        }
+        labelCount[depth] = 0;
+        total[depth] = 0;
+    }
+
+    private void count(int depth, long label, long count) {
+        if (below[depth].add(label, count) == count) {
+            if (labelCount[depth] == labels[depth].length) {
+                labels[depth] = Arrays.copyOf(labels[depth],
+                    2 * labels[depth].length);
+            }
+            labels[depth][labelCount[depth]++] = label;
+        }
+        total[depth] += count;
+    }
+
+    private void addSum(int sum, long label, long value) {
+        if (motifSums[sum] != null) {
+            motifSums[sum][(int)label] += value;
+        } else {
+            sums[sum].add(label, value);
+        }
+    }
+}
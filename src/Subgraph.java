@@ -49,18 +49,23 @@ public class Subgraph {
         return false;
     }
 
-    public void add(int node, AdjacencyList adjacencyList) {
-        int index = node;
-        nodes[currentSize] = index;
+    public void add(int node, Graph graph) {
+        nodes[currentSize] = node;
 
         for (int i = 0; i < currentSize; i++) {
-            if (adjacencyList.contains(get(i))) {
+            if (graph.hasEdge(node, get(i))) {
                 matrix.addEdge(i, currentSize);
             }
         }
         currentSize++;
     }
 
+    // removes the most recently added node
+    public void remove() {
+        currentSize--;
+        matrix.clearEdges(currentSize);
+    }
+
     public int get(int index) {
         return nodes[index];
     }
@@ -75,6 +80,11 @@ public class Subgraph {
         return s;
     }
 
+    // packed adjacency of the subgraph (see AdjacencyMatrix.toKey())
+    public long getKey() {
+        return matrix.toKey();
+    }
+
     public String getByteString() {
         try {
             return new String(matrix.toBytes(), "UTF-8");
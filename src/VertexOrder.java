@@ -0,0 +1,183 @@
+// VertexOrder.java
+//
+// Node orderings that can be applied to a parsed graph with Graph.relabel().
+// ESU only extends a subgraph with nodes greater than its root, so giving
+// high degree nodes the largest indexes keeps the extension sets of most
+// roots small, and orderings that keep neighbours close together make the
+// neighbour arrays of a subgraph's nodes more likely to share cache lines.
+//
+//   none        keep the parse order
+//   degree      ascending degree
+//   degeneracy  the order in which nodes are removed when the node of
+//               smallest remaining degree is removed repeatedly, so dense
+//               cores come last
+//   rcm         reverse Cuthill-McKee, which reduces the bandwidth of the
+//               adjacency matrix
+
+import java.util.Arrays;
+
+public class VertexOrder {
+
+    public static final String NONE = "none";
+    public static final String DEGREE = "degree";
+    public static final String DEGENERACY = "degeneracy";
+    public static final String RCM = "rcm";
+
+    public static boolean isValid(String name) {
+        return name.equals(NONE) || name.equals(DEGREE) ||
+               name.equals(DEGENERACY) || name.equals(RCM);
+    }
+
+    // returns the graph relabeled by the named ordering
+    public static Graph apply(Graph graph, String name) {
+        if (name.equals(NONE)) {
+            return graph;
+        } else if (name.equals(DEGREE)) {
+            return graph.relabel(toNewIds(byDegree(graph)));
+        } else if (name.equals(DEGENERACY)) {
+            return graph.relabel(toNewIds(byDegeneracy(graph)));
+        } else if (name.equals(RCM)) {
+            return graph.relabel(toNewIds(byReverseCuthillMcKee(graph)));
+        }
+        throw new IllegalArgumentException("Unknown node order: " + name);
+    }
+
+    // nodes in ascending degree (a counting sort, so ties keep their order)
+    public static int[] byDegree(Graph graph) {
+        int nodes = graph.size();
+        int maxDegree = 0;
+        for (int i = 0; i < nodes; i++) {
+            maxDegree = Math.max(maxDegree, graph.degree(i));
+        }
+
+        int[] starts = new int[maxDegree + 2];
+        for (int i = 0; i < nodes; i++) {
+            starts[graph.degree(i) + 1]++;
+        }
+        for (int d = 0; d <= maxDegree; d++) {
+            starts[d + 1] += starts[d];
+        }
+
+        int[] order = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            order[starts[graph.degree(i)]++] = i;
+        }
+        return order;
+    }
+
+    // nodes in the order of repeated minimum degree removal, using buckets
+    // of nodes by remaining degree (Matula and Beck)
+    public static int[] byDegeneracy(Graph graph) {
+        int nodes = graph.size();
+        int[] neighbours = graph.getNeighbours();
+
+        // 'order' holds the nodes sorted by remaining degree; 'starts[d]' is
+        // the first position of degree d and 'position' the inverse of order
+        int[] order = byDegree(graph);
+        int[] degree = new int[nodes];
+        int[] position = new int[nodes];
+        int maxDegree = 0;
+        for (int i = 0; i < nodes; i++) {
+            degree[i] = graph.degree(i);
+            position[order[i]] = i;
+            maxDegree = Math.max(maxDegree, degree[i]);
+        }
+        int[] starts = new int[maxDegree + 1];
+        for (int i = 0; i < nodes; i++) {
+            if (degree[i] < maxDegree) {
+                starts[degree[i] + 1]++;
+            }
+        }
+        for (int d = 0; d < maxDegree; d++) {
+            starts[d + 1] += starts[d];
+        }
+
+        for (int i = 0; i < nodes; i++) {
+            int node = order[i];
+            for (int j = graph.start(node); j < graph.end(node); j++) {
+                int other = neighbours[j];
+                if (degree[other] > degree[node]) {
+                    // move 'other' to the front of its bucket, then shrink
+                    // the bucket past it
+                    int d = degree[other];
+                    int front = order[starts[d]];
+                    if (front != other) {
+                        int p = position[other];
+                        order[starts[d]] = other;
+                        position[other] = starts[d];
+                        order[p] = front;
+                        position[front] = p;
+                    }
+                    starts[d]++;
+                    degree[other]--;
+                }
+            }
+        }
+        return order;
+    }
+
+    // nodes in reverse Cuthill-McKee order: a breadth first search of each
+    // component from a node of minimum degree, visiting neighbours in
+    // ascending degree, reversed at the end
+    public static int[] byReverseCuthillMcKee(Graph graph) {
+        int nodes = graph.size();
+        int[] neighbours = graph.getNeighbours();
+        int[] byDegree = byDegree(graph);
+        boolean[] visited = new boolean[nodes];
+        int[] order = new int[nodes];
+        int[] scratch = new int[16];
+        int tail = 0;
+
+        for (int start:byDegree) {
+            if (visited[start]) {
+                continue;
+            }
+            visited[start] = true;
+            order[tail++] = start;
+            for (int head = tail - 1; head < tail; head++) {
+                int node = order[head];
+                int count = 0;
+                if (scratch.length < graph.degree(node)) {
+                    scratch = new int[graph.degree(node)];
+                }
+                for (int j = graph.start(node); j < graph.end(node); j++) {
+                    if (!visited[neighbours[j]]) {
+                        visited[neighbours[j]] = true;
+                        scratch[count++] = neighbours[j];
+                    }
+                }
+                sortByDegree(graph, scratch, count);
+                System.arraycopy(scratch, 0, order, tail, count);
+                tail += count;
+            }
+        }
+
+        for (int i = 0, j = nodes - 1; i < j; i++, j--) {
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    // sorts the first 'count' nodes by degree (then by index)
+    private static void sortByDegree(Graph graph, int[] nodes, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long)graph.degree(nodes[i]) << 32) | nodes[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            nodes[i] = (int)keys[i];
+        }
+    }
+
+    // converts a sequence of nodes to the new index of each node
+    private static int[] toNewIds(int[] order) {
+        int[] newIds = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            newIds[order[i]] = i;
+        }
+        return newIds;
+    }
+}